@@ -0,0 +1,352 @@
+package org.geotools.process.external;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.geotools.feature.NameImpl;
+import org.opengis.feature.type.Name;
+
+/**
+ * The algorithms of an external app, as described in its description file
+ * (such as sagadesc.txt), where each algorithm is a block of lines ended by a
+ * "----" line.
+ *
+ * Names and descriptions are read from a binary index of the description
+ * file, generated at build time by running main(). Each algorithm is only
+ * parsed the first time its process is requested, by reading its block from
+ * the description file. The resulting process is kept as a prototype, so its
+ * parameter maps are shared by all the instances created from it. If there is
+ * no index, or it does not match the description file (as checked with a CRC32
+ * of the file), the whole file is parsed instead.
+ *
+ * Both files are read as classpath resources, so they can be inside a jar.
+ *
+ */
+public abstract class AlgorithmCatalog<T extends ExternalProcess> {
+
+	private static final int INDEX_MAGIC = 0x47544143;
+	private static final int INDEX_VERSION = 2;
+	private static final String CHARSET = "UTF-8";
+
+	private static class Entry {
+		String description;
+		int offset;
+		int length;
+	}
+
+	private final String namespace;
+	private final String descResource;
+	private final String indexResource;
+
+	// algorithms by name, in the order of the description file
+	private Map<String, Entry> entries;
+	private Set<Name> names;
+	private final Map<String, T> prototypes = new HashMap<String, T>();
+
+	/**
+	 * @param namespace
+	 *            the namespace of the names of the processes
+	 * @param descResource
+	 *            the classpath resource with the descriptions, such as
+	 *            "/sagadesc.txt". The index is the resource with the same
+	 *            name and the .idx extension
+	 */
+	protected AlgorithmCatalog(String namespace, String descResource) {
+		this.namespace = namespace;
+		this.descResource = descResource;
+		indexResource = descResource.substring(0, descResource
+				.lastIndexOf('.'))
+				+ ".idx";
+	}
+
+	/**
+	 * Creates the process described by a block of the description file
+	 */
+	protected abstract T createProcess(String desc);
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Returns the names of all the algorithms, without parsing them
+	 */
+	public synchronized Set<Name> getNames() {
+		load();
+		return names;
+	}
+
+	public boolean contains(Name name) {
+		return getNames().contains(name);
+	}
+
+	/**
+	 * Returns the description of an algorithm, without parsing it, or null if
+	 * there is no such algorithm
+	 */
+	public synchronized String getDescription(Name name) {
+		Entry entry = getEntry(name);
+		return entry != null ? entry.description : null;
+	}
+
+	/**
+	 * Returns the prototype of an algorithm, parsing it if it had not been
+	 * used before, or null if there is no such algorithm. The prototype should
+	 * not be executed, but used to create new instances
+	 */
+	public synchronized T getProcess(Name name) {
+		Entry entry = getEntry(name);
+		if (entry == null) {
+			return null;
+		}
+		T process = prototypes.get(name.getLocalPart());
+		if (process == null) {
+			try {
+				process = createProcess(readBlock(entry));
+			} catch (IOException e) {
+				throw new IllegalStateException("Error reading " + descResource
+						+ ":\n" + e.getMessage());
+			}
+			prototypes.put(name.getLocalPart(), process);
+		}
+		return process;
+	}
+
+	// the number of algorithms parsed so far
+	synchronized int getParsedCount() {
+		return prototypes.size();
+	}
+
+	private Entry getEntry(Name name) {
+		load();
+		if (!namespace.equals(name.getNamespaceURI())) {
+			return null;
+		}
+		return entries.get(name.getLocalPart());
+	}
+
+	private void load() {
+		if (entries != null) {
+			return;
+		}
+		try {
+			if (!readIndex()) {
+				scan();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading " + descResource
+					+ ":\n" + e.getMessage());
+		}
+	}
+
+	private void setEntries(Map<String, Entry> map) {
+		Set<Name> set = new LinkedHashSet<Name>();
+		for (String name : map.keySet()) {
+			set.add(new NameImpl(namespace, name));
+		}
+		entries = map;
+		names = Collections.unmodifiableSet(set);
+	}
+
+	// Reads the index, returning false if there is none or it was not
+	// generated from the current description file
+	private boolean readIndex() throws IOException {
+		URL url = getResource(indexResource);
+		if (url == null) {
+			return false;
+		}
+		long checksum = getChecksum(descResource);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(url
+				.openStream()));
+		try {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+					|| in.readLong() != checksum) {
+				return false;
+			}
+			int count = in.readInt();
+			Map<String, Entry> map = new LinkedHashMap<String, Entry>();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				Entry entry = new Entry();
+				entry.description = in.readUTF();
+				entry.offset = in.readInt();
+				entry.length = in.readInt();
+				map.put(name, entry);
+			}
+			setEntries(map);
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	// Parses the whole description file. Processes are kept as prototypes,
+	// since they have been parsed anyway
+	private void scan() throws IOException {
+		byte[] bytes = readResource(descResource);
+		Map<String, Entry> map = new LinkedHashMap<String, Entry>();
+		int blockStart = 0;
+		int lineStart = 0;
+		while (lineStart < bytes.length) {
+			int lineEnd = lineStart;
+			while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (isSeparator(bytes, lineStart, lineEnd)) {
+				Entry entry = new Entry();
+				entry.offset = blockStart;
+				entry.length = lineStart - blockStart;
+				T process = createProcess(new String(bytes, entry.offset,
+						entry.length, CHARSET));
+				entry.description = process.getDescription();
+				map.put(process.getName(), entry);
+				prototypes.put(process.getName(), process);
+				blockStart = lineEnd + 1;
+			}
+			lineStart = lineEnd + 1;
+		}
+		setEntries(map);
+	}
+
+	private static boolean isSeparator(byte[] bytes, int start, int end) {
+		if (end - start < 4) {
+			return false;
+		}
+		for (int i = start; i < start + 4; i++) {
+			if (bytes[i] != '-') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String readBlock(Entry entry) throws IOException {
+		InputStream in = getResourceStream(descResource);
+		try {
+			long skipped = 0;
+			while (skipped < entry.offset) {
+				long n = in.skip(entry.offset - skipped);
+				if (n <= 0) {
+					throw new IOException("The index does not match "
+							+ descResource);
+				}
+				skipped += n;
+			}
+			byte[] block = new byte[entry.length];
+			new DataInputStream(in).readFully(block);
+			return new String(block, CHARSET);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Overridden by tests to read files that are not in the classpath
+	URL getResource(String resource) {
+		return getClass().getResource(resource);
+	}
+
+	private InputStream getResourceStream(String resource) throws IOException {
+		URL url = getResource(resource);
+		if (url == null) {
+			throw new IOException("Resource not found: " + resource);
+		}
+		return new BufferedInputStream(url.openStream());
+	}
+
+	private byte[] readResource(String resource) throws IOException {
+		InputStream in = getResourceStream(resource);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	// the CRC32 of a resource. Reading it is much cheaper than parsing it
+	private long getChecksum(String resource) throws IOException {
+		InputStream in = getResourceStream(resource);
+		try {
+			CRC32 crc = new CRC32();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, n);
+			}
+			return crc.getValue();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the whole description file and writes its index
+	 */
+	public void writeIndex(File file) throws IOException {
+		synchronized (this) {
+			scan();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(getChecksum(descResource));
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeUTF(e.getValue().description);
+				out.writeInt(e.getValue().offset);
+				out.writeInt(e.getValue().length);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the index of a catalog. Run at build time, once the description
+	 * files have been copied to the output folder.
+	 *
+	 * @param args
+	 *            the class of the catalog, which must have a public
+	 *            constructor with no arguments, and the index file to write
+	 */
+	public static void main(String[] args) throws Exception {
+		// it runs in the JVM of the build, so it must not call System.exit()
+		if (args.length != 2) {
+			throw new IllegalArgumentException(
+					"Usage: AlgorithmCatalog <catalog class> <index file>");
+		}
+		@SuppressWarnings("unchecked")
+		Class<? extends AlgorithmCatalog<?>> type = (Class<? extends AlgorithmCatalog<?>>) Class
+				.forName(args[0]).asSubclass(AlgorithmCatalog.class);
+		AlgorithmCatalog<?> catalog = type.getDeclaredConstructor()
+				.newInstance();
+		File file = new File(args[1]);
+		catalog.writeIndex(file);
+		System.out.println("Wrote index of " + catalog.getNames().size()
+				+ " algorithms to " + file);
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.geotools.process.external;
+
+import org.geotools.process.external.ExecutionMetrics.Phase;
+
+/**
+ * Metrics aggregated over all the executions of an algorithm.
+ *
+ */
+public class AlgorithmMetrics implements AlgorithmMetricsMBean {
+
+	private final String algorithm;
+	private long executions = 0;
+	private long failures = 0;
+	private long totalTime = 0;
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private long bytesWritten = 0;
+	private long bytesRead = 0;
+	private long childCpuTime = 0;
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+	private long groupReuses = 0;
+	private int lastExitCode = 0;
+	private String lastError;
+
+	public AlgorithmMetrics(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	synchronized void add(ExecutionMetrics metrics) {
+		executions++;
+		if (metrics.isFailed()) {
+			failures++;
+			lastError = metrics.getError();
+		}
+		totalTime += Math.max(0, metrics.getTotalTime());
+		Phase[] phases = Phase.values();
+		for (int i = 0; i < phases.length; i++) {
+			phaseNanos[i] += metrics.getNanos(phases[i]);
+		}
+		bytesWritten += metrics.getBytesWritten();
+		bytesRead += metrics.getBytesRead();
+		childCpuTime += Math.max(0, metrics.getChildCpuTime());
+		cacheHits += metrics.getCacheHits();
+		cacheMisses += metrics.getCacheMisses();
+		groupReuses += metrics.getGroupReuses();
+		for (Integer code : metrics.getExitCodes()) {
+			lastExitCode = code.intValue();
+		}
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public synchronized long getExecutionCount() {
+		return executions;
+	}
+
+	public synchronized long getFailureCount() {
+		return failures;
+	}
+
+	public synchronized long getTotalTime() {
+		return totalTime;
+	}
+
+	public synchronized long getAverageTime() {
+		return executions > 0 ? totalTime / executions : 0;
+	}
+
+	public long getExportTime() {
+		return getTime(Phase.EXPORT);
+	}
+
+	public long getPrepareTime() {
+		return getTime(Phase.PREPARE);
+	}
+
+	public long getRunTime() {
+		return getTime(Phase.RUN);
+	}
+
+	public long getReadTime() {
+		return getTime(Phase.READ);
+	}
+
+	public long getCleanupTime() {
+		return getTime(Phase.CLEANUP);
+	}
+
+	public synchronized long getTime(Phase phase) {
+		return phaseNanos[phase.ordinal()] / 1000000;
+	}
+
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized long getChildCpuTime() {
+		return childCpuTime;
+	}
+
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	public synchronized long getGroupReuses() {
+		return groupReuses;
+	}
+
+	public synchronized int getLastExitCode() {
+		return lastExitCode;
+	}
+
+	public synchronized String getLastError() {
+		return lastError;
+	}
+
+}
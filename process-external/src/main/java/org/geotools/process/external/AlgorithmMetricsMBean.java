@@ -0,0 +1,46 @@
+package org.geotools.process.external;
+
+/**
+ * JMX view of the metrics aggregated for an algorithm. Times are in
+ * milliseconds.
+ *
+ */
+public interface AlgorithmMetricsMBean {
+
+	public String getAlgorithm();
+
+	public long getExecutionCount();
+
+	public long getFailureCount();
+
+	public long getTotalTime();
+
+	public long getAverageTime();
+
+	public long getExportTime();
+
+	public long getPrepareTime();
+
+	public long getRunTime();
+
+	public long getReadTime();
+
+	public long getCleanupTime();
+
+	public long getBytesWritten();
+
+	public long getBytesRead();
+
+	public long getChildCpuTime();
+
+	public long getCacheHits();
+
+	public long getCacheMisses();
+
+	public long getGroupReuses();
+
+	public int getLastExitCode();
+
+	public String getLastError();
+
+}
@@ -11,25 +11,41 @@ public class AppSpecificProcessGroup extends ProcessGroup {
 	//all the exportedLayers maps in them
 	private HashMap<Object, String[]> layerFilenames = new HashMap<Object, String[]>();
 	
-	public void finish() {
+	public synchronized void finish() {
 	    for (ExternalProcess process : processes) {
 	    	process.deleteExportedLayers();
 	    }
 	}
 	
-	public String[] getLayerFilenames(Object obj) {
+	public synchronized String[] getLayerFilenames(Object obj) {
 		return layerFilenames.get(obj);
 	}
 
-	public void addLayerFilename(Object obj, String[] filenames) {
+	public synchronized void addLayerFilename(Object obj, String[] filenames) {
 		layerFilenames.put(obj, filenames);
 
 	}
+
+	// Forgets all the layers, when the files holding them have been lost
+	protected synchronized void clearLayerFilenames() {
+		layerFilenames.clear();
+	}
 	
-	public void addProcess(ExternalProcess proc) {
+	public synchronized void addProcess(ExternalProcess proc) {
 		processes.add(proc);
 		proc.setAppSpecificProcessGroup(this);
 	}
 
+	// Creates a chain of processes in this group, run as batch jobs that
+	// keep intermediate layers in the format of the app
+	public ProcessChain createChain() {
+		return new ProcessChain(this);
+	}
+
+	// Whether batch jobs of processes in this group can run at the same time
+	public boolean allowsConcurrentBatches() {
+		return true;
+	}
+
 
 }
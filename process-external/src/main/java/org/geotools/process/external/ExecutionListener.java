@@ -0,0 +1,13 @@
+package org.geotools.process.external;
+
+/**
+ * Receives the metrics of each execution of an external process. Listeners
+ * are registered with ExternalProcessMetrics, and called from the thread
+ * that ran the process, so they should return quickly.
+ *
+ */
+public interface ExecutionListener {
+
+	public void executionFinished(ExecutionMetrics metrics);
+
+}
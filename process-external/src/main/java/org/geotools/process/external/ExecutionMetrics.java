@@ -0,0 +1,245 @@
+package org.geotools.process.external;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Metrics of a single execution of an external process: the time spent in
+ * each phase, bytes written and read, CPU time and exit codes of the child
+ * processes, and how many layers were reused instead of being exported.
+ *
+ * Metrics are recorded by ExternalProcessMetrics once the execution has
+ * finished, and passed to its ExecutionListeners.
+ *
+ */
+public class ExecutionMetrics {
+
+	/**
+	 * The phases of an execution.
+	 * <ul>
+	 * <li>EXPORT: writing layers from GeoTools to files</li>
+	 * <li>PREPARE: creating the commands to run, including those importing
+	 * layers and setting the region</li>
+	 * <li>RUN: running the external app. Imports, region setup, the algorithm
+	 * and the conversion of outputs are all run in the same batch job</li>
+	 * <li>READ: opening the results</li>
+	 * <li>CLEANUP: deleting intermediate files</li>
+	 * </ul>
+	 */
+	public enum Phase {
+		EXPORT, PREPARE, RUN, READ, CLEANUP
+	}
+
+	// the number of lines of the output of child processes that are kept
+	private static final int MAX_OUTPUT_LINES = 50;
+
+	// the line printed by the "times" shell builtin for child processes,
+	// such as "0m1.250s 0m0.310s"
+	private static final Pattern TIMES_PATTERN = Pattern
+			.compile("(\\d+)m([\\d.,]+)s\\s+(\\d+)m([\\d.,]+)s");
+
+	private final String algorithm;
+	private final long startTime;
+	private long totalTime = -1;
+	private final long[] phaseTimes = new long[Phase.values().length];
+	private long bytesWritten = 0;
+	private long bytesRead = 0;
+	private long childCpuTime = -1;
+	private final List<Integer> exitCodes = new ArrayList<Integer>();
+	private int cacheHits = 0;
+	private int cacheMisses = 0;
+	private int groupReuses = 0;
+	private String error;
+	private final LinkedList<String> output = new LinkedList<String>();
+
+	public ExecutionMetrics(String algorithm) {
+		this.algorithm = algorithm;
+		startTime = System.currentTimeMillis();
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	// the time the execution started, in milliseconds since the epoch
+	public long getStartTime() {
+		return startTime;
+	}
+
+	// the wall time of the whole execution, in milliseconds, or -1 if it has
+	// not finished
+	public synchronized long getTotalTime() {
+		return totalTime;
+	}
+
+	// the wall time spent in a phase, in milliseconds
+	public synchronized long getTime(Phase phase) {
+		return phaseTimes[phase.ordinal()] / 1000000;
+	}
+
+	synchronized long getNanos(Phase phase) {
+		return phaseTimes[phase.ordinal()];
+	}
+
+	/**
+	 * Adds the time elapsed since the given start, as returned by
+	 * System.nanoTime(), to a phase
+	 */
+	public synchronized void addTime(Phase phase, long start) {
+		phaseTimes[phase.ordinal()] += System.nanoTime() - start;
+	}
+
+	synchronized void addNanos(Phase phase, long nanos) {
+		phaseTimes[phase.ordinal()] += Math.max(0, nanos);
+	}
+
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public synchronized void addBytesWritten(long bytes) {
+		bytesWritten += bytes;
+	}
+
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized void addBytesRead(long bytes) {
+		bytesRead += bytes;
+	}
+
+	// the CPU time (user and system) of the child processes, in
+	// milliseconds, or -1 if it is not known
+	public synchronized long getChildCpuTime() {
+		return childCpuTime;
+	}
+
+	public synchronized void addChildCpuTime(long millis) {
+		childCpuTime = Math.max(0, childCpuTime) + millis;
+	}
+
+	public synchronized List<Integer> getExitCodes() {
+		return new ArrayList<Integer>(exitCodes);
+	}
+
+	public synchronized void addExitCode(int code) {
+		exitCodes.add(Integer.valueOf(code));
+	}
+
+	// layers found in the ExportCache (or among the resident layers of an app
+	// session), and those that had to be exported
+	public synchronized int getCacheHits() {
+		return cacheHits;
+	}
+
+	public synchronized void addCacheHit() {
+		cacheHits++;
+	}
+
+	public synchronized int getCacheMisses() {
+		return cacheMisses;
+	}
+
+	public synchronized void addCacheMiss() {
+		cacheMisses++;
+	}
+
+	// layers exported or created by other processes in the same group
+	public synchronized int getGroupReuses() {
+		return groupReuses;
+	}
+
+	public synchronized void addGroupReuse() {
+		groupReuses++;
+	}
+
+	public synchronized boolean isFailed() {
+		return error != null;
+	}
+
+	public synchronized String getError() {
+		return error;
+	}
+
+	public synchronized void setError(String error) {
+		this.error = error;
+	}
+
+	// records the message of an exception, or its class if it has none
+	public synchronized void setError(Throwable e) {
+		error = e.getMessage() != null ? e.getMessage() : e.toString();
+	}
+
+	/**
+	 * Returns the last lines of output (standard output and error) of the
+	 * child processes
+	 */
+	public synchronized List<String> getOutput() {
+		return new ArrayList<String>(output);
+	}
+
+	public synchronized void addOutputLine(String line) {
+		output.add(line);
+		if (output.size() > MAX_OUTPUT_LINES) {
+			output.removeFirst();
+		}
+	}
+
+	// the captured output, as a single string to add to error messages
+	public synchronized String getOutputText() {
+		StringBuilder sb = new StringBuilder();
+		for (String line : output) {
+			sb.append(line).append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses the line printed by the "times" shell builtin for child
+	 * processes, returning the CPU time in milliseconds, or -1 if it is not
+	 * such a line
+	 */
+	public static long parseTimes(String line) {
+		Matcher m = TIMES_PATTERN.matcher(line.trim());
+		if (!m.matches()) {
+			return -1;
+		}
+		double seconds = Integer.parseInt(m.group(1)) * 60
+				+ Double.parseDouble(m.group(2).replace(',', '.'))
+				+ Integer.parseInt(m.group(3)) * 60
+				+ Double.parseDouble(m.group(4).replace(',', '.'));
+		return Math.round(seconds * 1000);
+	}
+
+	synchronized void finish() {
+		totalTime = System.currentTimeMillis() - startTime;
+	}
+
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder(algorithm);
+		sb.append(": ").append(totalTime).append(" ms");
+		Phase[] phases = Phase.values();
+		for (int i = 0; i < phases.length; i++) {
+			sb.append(", ").append(phases[i].name().toLowerCase()).append(
+					" ").append(phaseTimes[i] / 1000000).append(" ms");
+		}
+		sb.append(", ").append(bytesWritten).append(" bytes written, ")
+				.append(bytesRead).append(" bytes read");
+		if (childCpuTime >= 0) {
+			sb.append(", child CPU ").append(childCpuTime).append(" ms");
+		}
+		sb.append(", exit codes ").append(exitCodes);
+		sb.append(", cache ").append(cacheHits).append("/").append(
+				cacheHits + cacheMisses);
+		sb.append(", group reuses ").append(groupReuses);
+		if (error != null) {
+			sb.append(", failed: ").append(error);
+		}
+		return sb.toString();
+	}
+
+}
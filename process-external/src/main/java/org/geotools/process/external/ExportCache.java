@@ -0,0 +1,458 @@
+package org.geotools.process.external;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.ViewType;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+import org.opengis.feature.Property;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * A process-wide cache of layers exported from GeoTools, so the same data is
+ * written to disk just once, even if it is used by different requests.
+ *
+ * Layers are identified by a fingerprint of their content (CRS, envelope,
+ * grid geometry and data), not by the GeoTools object holding them. Each entry
+ * contains the file where the layer was exported and, optionally, the layers
+ * created from that file by the import process of a given external app (such
+ * as SAGA .sgrd files).
+ *
+ * The total size of the cached files is bounded. When it is exceeded, the
+ * least recently used entries are deleted, except those in use by a running
+ * process. Processes acquire the entries they use and release them once they
+ * delete their own intermediate files.
+ *
+ * The maximum size (in megabytes) can be set with the
+ * org.geotools.process.external.cacheSize system property. A size of 0
+ * disables the cache.
+ *
+ */
+public class ExportCache {
+
+	public static final String CACHE_SIZE_PROPERTY = "org.geotools.process.external.cacheSize";
+
+	// default maximum size, in megabytes
+	private static final long DEFAULT_CACHE_SIZE = 1024;
+
+	private static ExportCache instance;
+
+	private final String folder;
+	private final long maxSize;
+	private long size = 0;
+
+	// entries in access order, so the first ones are the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	public static class Entry {
+
+		private final String key;
+		private volatile String filename;
+		private final HashMap<String, String[]> importedLayers = new HashMap<String, String[]>();
+		private long size;
+		private int references = 0;
+
+		Entry(String key, String filename) {
+			this.key = key;
+			this.filename = filename;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		// the file where the layer was exported, or null if it has only been
+		// written in the format of an external app
+		public String getFilename() {
+			return filename;
+		}
+
+	}
+
+	/**
+	 * Creates a cache storing its files in the given folder
+	 *
+	 * @param folder
+	 *            the folder for cached files
+	 * @param maxSize
+	 *            the maximum size of cached files, in bytes. 0 disables the
+	 *            cache
+	 */
+	public ExportCache(String folder, long maxSize) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+	}
+
+	public static synchronized ExportCache getInstance() {
+		if (instance == null) {
+			long mb = DEFAULT_CACHE_SIZE;
+			String prop = System.getProperty(CACHE_SIZE_PROPERTY);
+			if (prop != null) {
+				try {
+					mb = Math.max(0, Long.parseLong(prop.trim()));
+				} catch (NumberFormatException e) {
+					// we keep the default size
+				}
+			}
+			String folder = mb > 0 ? Utils.createTempFolder("gtexportcache")
+					: null;
+			instance = new ExportCache(folder, mb * 1024 * 1024);
+		}
+		return instance;
+	}
+
+	public static synchronized void setInstance(ExportCache cache) {
+		instance = cache;
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Returns a new filename in the cache folder
+	 */
+	public String getFilename(String prefix, String ext) {
+		String filename = new File(Utils.getTempFilename(prefix, ext))
+				.getName();
+		return folder + File.separator + filename;
+	}
+
+	/**
+	 * Returns the entry for the given fingerprint, or null if it is not
+	 * cached. The entry is acquired, so it will not be evicted until it is
+	 * released
+	 */
+	public synchronized Entry acquire(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		entry.references++;
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(getFileSize(entry.filename));
+		return entry;
+	}
+
+	/**
+	 * Adds a new exported file to the cache. The returned entry is already
+	 * acquired. If the fingerprint was added by another process in the
+	 * meantime, the new file is deleted and the existing entry is returned.
+	 * The file can be null, for layers only written in the format of an
+	 * external app, which are then added with addImportedLayers()
+	 */
+	public synchronized Entry put(String key, String filename) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			deleteFiles(filename);
+			entry.references++;
+			return entry;
+		}
+		entry = new Entry(key, filename);
+		entry.references = 1;
+		entry.size = getFileSize(filename);
+		entries.put(key, entry);
+		size += entry.size;
+		evict();
+		return entry;
+	}
+
+	/**
+	 * Sets the exported file of an entry added with no file. If another
+	 * process has set it first, the given file is deleted.
+	 *
+	 * @return the exported file, which should be used instead of the given
+	 *         one
+	 */
+	public synchronized String setFilename(Entry entry, String filename) {
+		if (entry.filename != null) {
+			deleteFiles(filename);
+			return entry.filename;
+		}
+		entry.filename = filename;
+		long fileSize = getFileSize(filename);
+		entry.size += fileSize;
+		size += fileSize;
+		evict();
+		return filename;
+	}
+
+	/**
+	 * Returns the layers imported from the given entry by an external app, or
+	 * null if they have not been cached
+	 */
+	public synchronized String[] getImportedLayers(Entry entry, String app) {
+		String[] layers = entry.importedLayers.get(app);
+		if (layers != null) {
+			hits.incrementAndGet();
+			for (int i = 0; i < layers.length; i++) {
+				bytesSaved.addAndGet(getFileSize(layers[i]));
+			}
+		}
+		return layers;
+	}
+
+	/**
+	 * Adds the layers imported from the given entry by an external app. If
+	 * another process has added them first, the given ones are deleted.
+	 *
+	 * @return the layers imported by the app, which should be used instead
+	 *         of the given ones
+	 */
+	public synchronized String[] addImportedLayers(Entry entry, String app,
+			String[] layers) {
+		if (entry.importedLayers.containsKey(app)) {
+			deleteFiles(layers);
+			return entry.importedLayers.get(app);
+		}
+		entry.importedLayers.put(app, layers);
+		long layersSize = 0;
+		for (int i = 0; i < layers.length; i++) {
+			layersSize += getFileSize(layers[i]);
+		}
+		entry.size += layersSize;
+		size += layersSize;
+		evict();
+		return layers;
+	}
+
+	public synchronized void release(Entry entry) {
+		if (entry.references > 0) {
+			entry.references--;
+		}
+		evict();
+	}
+
+	/**
+	 * Removes all entries not in use
+	 */
+	public synchronized void clear() {
+		Iterator<Entry> iter = entries.values().iterator();
+		while (iter.hasNext()) {
+			Entry entry = iter.next();
+			if (entry.references == 0) {
+				iter.remove();
+				size -= entry.size;
+				deleteEntryFiles(entry);
+			}
+		}
+	}
+
+	private void evict() {
+		Iterator<Entry> iter = entries.values().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			Entry entry = iter.next();
+			if (entry.references == 0) {
+				iter.remove();
+				size -= entry.size;
+				deleteEntryFiles(entry);
+			}
+		}
+	}
+
+	private void deleteEntryFiles(Entry entry) {
+		deleteFiles(entry.filename);
+		for (String[] layers : entry.importedLayers.values()) {
+			deleteFiles(layers);
+		}
+	}
+
+	// deletes the given files and their auxiliary files (those sharing the
+	// same base name, such as .shx or .prj files)
+	private static void deleteFiles(String... filenames) {
+		for (int i = 0; i < filenames.length; i++) {
+			if (filenames[i] == null) {
+				continue;
+			}
+			for (File file : getLayerFiles(filenames[i])) {
+				file.delete();
+			}
+		}
+	}
+
+	// the size of a layer, including its sidecar files
+	static long getFileSize(String filename) {
+		long size = 0;
+		if (filename == null) {
+			return size;
+		}
+		for (File file : getLayerFiles(filename)) {
+			size += file.length();
+		}
+		return size;
+	}
+
+	private static File[] getLayerFiles(String filename) {
+		File file = new File(filename);
+		String name = file.getName();
+		int idx = name.indexOf(".");
+		final String basename = idx < 0 ? name : name.substring(0, idx);
+		File[] files = file.getAbsoluteFile().getParentFile()
+				.listFiles(new FileFilter() {
+					public boolean accept(File f) {
+						String name = f.getName();
+						return name.equals(basename)
+								|| name.startsWith(basename + ".");
+					}
+				});
+		return files == null ? new File[0] : files;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// the size of the files that did not have to be written thanks to the
+	// cache
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns a fingerprint of the content of a grid coverage, based on its
+	 * CRS, envelope, grid geometry and sample values
+	 */
+	public static String getFingerprint(GridCoverage2D gc) {
+		MessageDigest md = createDigest();
+		update(md, gc.getCoordinateReferenceSystem());
+		update(md, gc.getEnvelope());
+		GridEnvelope2D range = gc.getGridGeometry().getGridRange2D();
+		update(md, range.x + " " + range.y + " " + range.width + " "
+				+ range.height + " " + gc.getNumSampleDimensions());
+
+		RenderedImage image = gc.view(ViewType.NATIVE).getRenderedImage();
+		Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(),
+				image.getWidth(), image.getHeight());
+		update(md, Integer.toString(image.getSampleModel().getDataType()));
+		ByteBuffer buffer = ByteBuffer.allocate(8 * Math.max(1,
+				image.getTileWidth()));
+		double[] samples = new double[image.getTileWidth()];
+		for (int ty = image.getMinTileY(); ty < image.getMinTileY()
+				+ image.getNumYTiles(); ty++) {
+			for (int tx = image.getMinTileX(); tx < image.getMinTileX()
+					+ image.getNumXTiles(); tx++) {
+				Raster tile = image.getTile(tx, ty);
+				Rectangle rect = tile.getBounds().intersection(bounds);
+				if (rect.isEmpty()) {
+					continue;
+				}
+				for (int b = 0; b < tile.getNumBands(); b++) {
+					for (int y = rect.y; y < rect.y + rect.height; y++) {
+						tile.getSamples(rect.x, y, rect.width, 1, b, samples);
+						buffer.clear();
+						for (int x = 0; x < rect.width; x++) {
+							buffer.putDouble(samples[x]);
+						}
+						md.update(buffer.array(), 0, buffer.position());
+					}
+				}
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Returns a fingerprint of the content of a feature collection, based on
+	 * its schema and the attributes and geometries of its features
+	 */
+	public static String getFingerprint(FeatureCollection fc) {
+		MessageDigest md = createDigest();
+		update(md, fc.getSchema().getCoordinateReferenceSystem());
+		update(md, fc.getSchema().getDescriptors().toString());
+		WKBWriter writer = new WKBWriter();
+		FeatureIterator iter = fc.features();
+		try {
+			while (iter.hasNext()) {
+				Feature feature = (Feature) iter.next();
+				for (Property property : feature.getProperties()) {
+					Object value = property.getValue();
+					if (value instanceof Geometry) {
+						md.update(writer.write((Geometry) value));
+					} else {
+						update(md, String.valueOf(value));
+					}
+				}
+				md.update((byte) '\n');
+			}
+		} finally {
+			iter.close();
+		}
+		return toHex(md.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void update(MessageDigest md, CoordinateReferenceSystem crs) {
+		update(md, crs == null ? "" : crs.toWKT());
+	}
+
+	private static void update(MessageDigest md, Envelope env) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < env.getDimension(); i++) {
+			sb.append(env.getMinimum(i)).append(' ')
+					.append(env.getMaximum(i)).append(' ');
+		}
+		update(md, sb.toString());
+	}
+
+	private static void update(MessageDigest md, String s) {
+		try {
+			md.update(s.getBytes("UTF-8"));
+		} catch (java.io.UnsupportedEncodingException e) {
+			md.update(s.getBytes());
+		}
+		md.update((byte) 0);
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < bytes.length; i++) {
+			sb.append(Integer.toHexString((bytes[i] & 0xff) | 0x100)
+					.substring(1));
+		}
+		return sb.toString();
+	}
+
+}
@@ -4,8 +4,12 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
@@ -21,6 +25,8 @@ import org.geotools.feature.FeatureCollection;
 import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.geotools.process.Process;
 import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics.Phase;
+import org.geotools.util.SimpleInternationalString;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.util.ProgressListener;
 
@@ -45,6 +51,11 @@ public abstract class ExternalProcess implements Process {
 	protected String name;
 	protected String description;
 
+	// Entries of the process-wide ExportCache used by this process, and the
+	// fingerprints of the layers it has exported
+	protected HashMap<Object, ExportCache.Entry> cacheEntries = new HashMap<Object, ExportCache.Entry>();
+	protected HashMap<Object, String> cacheKeys = new HashMap<Object, String>();
+
 	protected boolean isCleared = false;
 	protected boolean isAppSpecificCleared = false;
 
@@ -56,25 +67,91 @@ public abstract class ExternalProcess implements Process {
 	// optimizing usage of layers referred in the exportedLayers map
 	protected AppSpecificProcessGroup appProcessGroup = null;
 
+	// Maximum time in milliseconds to wait for the external app. 0 means no
+	// timeout
+	protected long timeout = ExternalProcessExecutor.getDefaultTimeout();
+
+	// Parameters to run tile-safe algorithms in tiled mode. The tile size is
+	// in cells. The halo defaults to the one declared for the algorithm
+	public static final String TILE_SIZE_PARAMETER = "tilesize";
+	public static final String TILE_HALO_PARAMETER = "tilehalo";
+
+	// Parameters to select the outputs to compute, as a comma-separated list
+	// or an array of names, and to return them as LazyResult handles
+	public static final String OUTPUTS_PARAMETER = "outputs";
+	public static final String LAZY_RESULTS_PARAMETER = "lazyresults";
+
+	// The outputs requested in the current execution (lowercase), or null if
+	// all of them are, and whether they are returned as handles
+	protected Set<String> requestedOutputs = null;
+	protected boolean lazyResults = false;
+
+	// The overlap that tiles need for this algorithm, as a number of cells or
+	// the name of the parameter holding it. Null if it is not tile-safe
+	protected String tileHalo = null;
+
+	// The metrics of the current (or last) execution
+	protected ExecutionMetrics metrics;
+
+	// Whether input layers are looked up in and added to the export cache,
+	// or kept resident in GRASS sessions. Tiles of a tiled execution are only
+	// used once, so they are not
+	protected boolean useExportCache = true;
+
 	// Export a grid coverage to a temporary file in TIF format
 	protected String saveRasterLayer(GridCoverage2D gc) {
-		// TODO:do not save if it is already file-based
+		// we do not save if it is already file-based
+		File source = FileSources.getSourceFile(gc);
+		if (source != null) {
+			return source.getAbsolutePath();
+		}
 		
-		// we do not save if it has been saved before in this ProcessGroup (in
+		// or if it has been saved before in this ProcessGroup (in
 		// case the process belongs to one)
 		if (processGroup!= null){
 			String filename = processGroup.getLayerFilename(gc);
 			if (filename != null) {
+				metrics.addGroupReuse();
 				return filename;
 			}
 		}
+		// or if it has been exported before by any other process
+		// (layers only written in the format of an app have no exported file,
+		// which is then written by the first process that needs it)
+		ExportCache.Entry entry = getCacheEntry(gc);
+		if (entry != null && entry.getFilename() != null) {
+			if (processGroup != null) {
+				processGroup.addLayerFilename(gc, entry.getFilename());
+			}
+			return entry.getFilename();
+		}
+		return writeRasterLayer(gc);
+	}
+
+	// Writes a grid coverage to a GeoTIFF file. If its fingerprint has been
+	// computed (that is, the cache is enabled), the file is written to the
+	// cache folder and a cache entry is created for it
+	protected String writeRasterLayer(GridCoverage2D gc) {
+		long start = System.nanoTime();
 		try {
-			String filename = getTempLayerFilename("raster", "tif");
+			String key = cacheKeys.get(gc);
+			String filename = key != null ? ExportCache.getInstance()
+					.getFilename("raster", "tif") : getTempLayerFilename(
+					"raster", "tif");
 			AbstractGridCoverageWriter writer = new GeoTiffWriter(new File(
 					filename));
 			writer.write(gc.view(ViewType.NATIVE), null);
 			writer.dispose();
-			intermediateLayers.put(gc, filename);
+			addBytesWritten(filename);
+			ExportCache.Entry entry = cacheEntries.get(gc);
+			if (entry != null) {
+				filename = ExportCache.getInstance().setFilename(entry,
+						filename);
+			} else if (key != null) {
+				filename = addCacheEntry(gc, key, filename).getFilename();
+			} else {
+				intermediateLayers.put(gc, filename);
+			}
 			if (processGroup != null) {
 				processGroup.addLayerFilename(gc, filename);
 			}
@@ -82,25 +159,42 @@ public abstract class ExternalProcess implements Process {
 		} catch (Exception e) {
 			throw new ProcessException("Error exporting grid coverage:\n"
 					+ e.getMessage());
+		} finally {
+			metrics.addTime(Phase.EXPORT, start);
 		}
-
-
 	}
 
 	// Exports a FeatureCollection to a temporary shapefile
 	protected String saveVectorLayer(FeatureCollection fc) {
-		// TODO:do not save if it is already file-based
+		// we do not save if it is already file-based
+		File source = FileSources.getSourceFile(fc);
+		if (source != null) {
+			return source.getAbsolutePath();
+		}
 
-		// we do not save if it has been saved before in this ProcessGroup (in
+		// or if it has been saved before in this ProcessGroup (in
 		// case the process belong to one)
 		if (processGroup != null) {
 			String filename = processGroup.getLayerFilename(fc);
 			if (filename != null) {
+				metrics.addGroupReuse();
 				return filename;
 			}
 		}
+		// or if it has been exported before by any other process
+		ExportCache.Entry entry = getCacheEntry(fc);
+		if (entry != null) {
+			if (processGroup != null) {
+				processGroup.addLayerFilename(fc, entry.getFilename());
+			}
+			return entry.getFilename();
+		}
+		long start = System.nanoTime();
 		try {
-			String filename = getTempLayerFilename("vector", "shp");
+			String key = cacheKeys.get(fc);
+			String filename = key != null ? ExportCache.getInstance()
+					.getFilename("vector", "shp") : getTempLayerFilename(
+					"vector", "shp");
 
 			ShapefileDataStoreFactory dataStoreFactory = new ShapefileDataStoreFactory();
 
@@ -132,7 +226,12 @@ public abstract class ExternalProcess implements Process {
 			} else {
 				// should not reach here
 			}
-			intermediateLayers.put(fc, filename);
+			addBytesWritten(filename);
+			if (key != null) {
+				filename = addCacheEntry(fc, key, filename).getFilename();
+			} else {
+				intermediateLayers.put(fc, filename);
+			}
 			if (processGroup != null) {
 				processGroup.addLayerFilename(fc, filename);
 			}
@@ -140,8 +239,83 @@ public abstract class ExternalProcess implements Process {
 		} catch (Exception e) {
 			throw new ProcessException("Error exporting feature collection:\n"
 					+ e.getMessage());
+		} finally {
+			metrics.addTime(Phase.EXPORT, start);
+		}
+
+	}
+
+	// Returns the entry of the process-wide export cache for a layer, or null
+	// if it is not cached (or the cache is disabled). The entry is kept by
+	// this process until it deletes its layers
+	protected ExportCache.Entry getCacheEntry(Object layer) {
+		ExportCache.Entry entry = cacheEntries.get(layer);
+		if (entry != null) {
+			return entry;
+		}
+		ExportCache cache = ExportCache.getInstance();
+		if (!useExportCache || !cache.isEnabled()) {
+			return null;
+		}
+		String key = getFingerprint(layer);
+		if (key == null) {
+			return null;
+		}
+		entry = cache.acquire(key);
+		if (entry != null) {
+			cacheEntries.put(layer, entry);
+			metrics.addCacheHit();
+		} else {
+			metrics.addCacheMiss();
+		}
+		return entry;
+	}
+
+	// Returns the content fingerprint of a layer, computing it only once per
+	// execution
+	protected String getFingerprint(Object layer) {
+		String key = cacheKeys.get(layer);
+		if (key == null) {
+			if (layer instanceof GridCoverage2D) {
+				key = ExportCache.getFingerprint((GridCoverage2D) layer);
+			} else if (layer instanceof FeatureCollection) {
+				key = ExportCache.getFingerprint((FeatureCollection) layer);
+			} else {
+				return null;
+			}
+			cacheKeys.put(layer, key);
+		}
+		return key;
+	}
+
+	protected ExportCache.Entry addCacheEntry(Object layer, String key,
+			String filename) {
+		ExportCache.Entry entry = ExportCache.getInstance().put(key, filename);
+		cacheEntries.put(layer, entry);
+		return entry;
+	}
+
+	// Releases the cache entries used by this process, once both its
+	// intermediate and its exported layers have been deleted
+	protected void releaseCacheEntries() {
+		if (!isCleared || !isAppSpecificCleared) {
+			return;
+		}
+		ExportCache cache = ExportCache.getInstance();
+		for (ExportCache.Entry entry : cacheEntries.values()) {
+			cache.release(entry);
 		}
+		cacheEntries.clear();
+	}
+
+	// Adds the size of a layer (and its sidecar files) to the bytes written or
+	// read in the current execution
+	protected void addBytesWritten(String filename) {
+		metrics.addBytesWritten(ExportCache.getFileSize(filename));
+	}
 
+	protected void addBytesRead(String filename) {
+		metrics.addBytesRead(ExportCache.getFileSize(filename));
 	}
 
 	protected String getTempLayerFilename(String prefix, String ext) {
@@ -168,18 +342,151 @@ public abstract class ExternalProcess implements Process {
 		return description;
 	}
 
+	// Parameter maps are shared by all the instances created from the same
+	// prototype, so they are returned as read-only views
 	public Map<String, Parameter<?>> getParameterInfo() {
-		return inputs;
+		return Collections.unmodifiableMap(inputs);
 	}
 
 	public Map<String, Parameter<?>> getResultInfo() {
-		return outputs;
+		return Collections.unmodifiableMap(outputs);
 	}
 
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * Returns the metrics of the current execution, or the last one if it has
+	 * finished. Null if the process has not been executed
+	 */
+	public ExecutionMetrics getMetrics() {
+		return metrics;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	// Adds the parameters to select outputs and how they are returned
+	protected void addResultParameters() {
+		Parameter param = new Parameter(OUTPUTS_PARAMETER, String.class,
+				new SimpleInternationalString("Outputs"),
+				new SimpleInternationalString(
+						"Comma-separated names of the outputs to compute"),
+				false, 0, 1, null, null);
+		inputs.put(param.key, param);
+		param = new Parameter(LAZY_RESULTS_PARAMETER, Boolean.class,
+				new SimpleInternationalString("Lazy results"),
+				new SimpleInternationalString(
+						"Return outputs as handles read on demand"), false, 0,
+				1, null, null);
+		inputs.put(param.key, param);
+	}
+
+	// Returns true if an output has been requested in the current execution
+	protected boolean isRequested(String output) {
+		return requestedOutputs == null
+				|| requestedOutputs.contains(output.toLowerCase());
+	}
+
+	private Set<String> getRequestedOutputs(Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (value instanceof Collection) {
+			value = ((Collection<?>) value).toArray();
+		}
+		String[] names;
+		if (value instanceof Object[]) {
+			Object[] arr = (Object[]) value;
+			names = new String[arr.length];
+			for (int i = 0; i < arr.length; i++) {
+				names[i] = arr[i].toString();
+			}
+		} else {
+			names = value.toString().split(",");
+		}
+		Set<String> set = new HashSet<String>();
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].trim().toLowerCase();
+			boolean found = false;
+			for (String key : outputs.keySet()) {
+				found |= key.toLowerCase().equals(name);
+			}
+			if (!found) {
+				throw new ProcessException("Unknown output: " + names[i]);
+			}
+			set.add(name);
+		}
+		return set;
+	}
+
+	public boolean isTileSafe() {
+		return tileHalo != null;
+	}
+
+	// Reads the "TileSafe|<halo>" line of an algorithm description, and adds
+	// the parameters for tiled execution
+	protected void setTileSafe(String line) {
+		String[] tokens = line.split("\\|");
+		tileHalo = tokens.length > 1 ? tokens[1].trim() : "0";
+		Parameter param = new Parameter(TILE_SIZE_PARAMETER, Integer.class,
+				new SimpleInternationalString("Tile size"),
+				new SimpleInternationalString(
+						"Size in cells of the tiles to run the algorithm on"),
+				false, 0, 1, null, null);
+		inputs.put(param.key, param);
+		param = new Parameter(TILE_HALO_PARAMETER, Integer.class,
+				new SimpleInternationalString("Tile halo"),
+				new SimpleInternationalString(
+						"Overlap in cells between tiles"), false, 0, 1, null,
+				null);
+		inputs.put(param.key, param);
+	}
+
+	// Returns the halo needed by the algorithm with the given parameters. It
+	// is declared as a number of cells, the name of a parameter, or the name
+	// of a parameter plus a number of cells, such as "RADIUS+1"
+	protected int getTileHalo(Map<String, Object> params) {
+		String name = tileHalo;
+		int cells = 0;
+		try {
+			int idx = tileHalo.indexOf('+');
+			if (idx < 0) {
+				return Integer.parseInt(tileHalo);
+			}
+			name = tileHalo.substring(0, idx).trim();
+			cells = Integer.parseInt(tileHalo.substring(idx + 1).trim());
+		} catch (NumberFormatException e) {
+			// it is the name of a parameter
+		}
+		Object value = null;
+		for (String key : params.keySet()) {
+			if (key.equalsIgnoreCase(name)) {
+				value = params.get(key);
+			}
+		}
+		if (value == null) {
+			Parameter param = inputs.get(name);
+			if (param == null) {
+				param = inputs.get(name.toLowerCase());
+			}
+			if (param != null) {
+				value = param.getDefaultValue();
+			}
+		}
+		if (value == null) {
+			throw new ProcessException("Cannot compute tile halo from "
+					+ tileHalo);
+		}
+		return (int) Math.ceil(Double.parseDouble(value.toString())) + cells;
+	}
+
 	public void setGeneralProcessGroup(GeneralProcessGroup pg) {
 		processGroup = pg;
 	}
@@ -188,49 +495,260 @@ public abstract class ExternalProcess implements Process {
 		appProcessGroup = pg;
 	}
 	
-	public Map<String, Object> execute(Map<String, Object> params,
+	// An instance holds the state of a single execution, so it cannot be run
+	// more than once at the same time. Factories create a new instance for
+	// each call to create(), so independent requests can run concurrently.
+	public synchronized Map<String, Object> execute(Map<String, Object> params,
 			ProgressListener progress) throws ProcessException {
 
-		tempLayersFolder = Utils.createTempFolder("gttemplayers");
+		startExecution();
+		try {
+			// tiling parameters are never passed to the external app
+			if (params.containsKey(TILE_SIZE_PARAMETER)
+					|| params.containsKey(TILE_HALO_PARAMETER)) {
+				params = new HashMap<String, Object>(params);
+				Object tileSize = params.remove(TILE_SIZE_PARAMETER);
+				Object halo = params.remove(TILE_HALO_PARAMETER);
+				if (tileSize != null && isTileSafe()) {
+					TiledExecution tiled = new TiledExecution(this, parseInt(
+							TILE_SIZE_PARAMETER, tileSize),
+							halo != null ? parseInt(TILE_HALO_PARAMETER, halo)
+									: getTileHalo(params));
+					if (tiled.canRun(params)) {
+						// each tile also records its own metrics
+						return tiled.execute(params, progress);
+					}
+				}
+			}
 
-		Map<String, Object> result = _execute(params, progress);
+			params = setResultParameters(params);
+			return _execute(params, progress);
+		} catch (RuntimeException e) {
+			metrics.setError(e);
+			throw e;
+		} finally {
+			// layers are also deleted if the execution fails, so resources
+			// held by it (cache entries, app sessions) are not leaked
+			finishExecution();
+		}
+	
+	}
 
-		if (processGroup == null){
-			deleteIntermediateLayers();
+	private static int parseInt(String param, Object value) {
+		try {
+			return Integer.parseInt(value.toString());
+		} catch (NumberFormatException e) {
+			throw new ProcessException("Wrong value for " + param + ": "
+					+ value);
 		}
-		if (appProcessGroup == null) {
-			deleteExportedLayers();
+	}
+
+	// Resets the state of this instance for a new execution
+	void startExecution() {
+		tempLayersFolder = Utils.createTempFolder("gttemplayers");
+		intermediateLayers = new HashMap<Object, String>();
+		cacheKeys = new HashMap<Object, String>();
+		isCleared = false;
+		isAppSpecificCleared = false;
+		requestedOutputs = null;
+		lazyResults = false;
+		metrics = new ExecutionMetrics(name);
+	}
+
+	// Reads and removes the parameters selecting the outputs and how they are
+	// returned
+	Map<String, Object> setResultParameters(Map<String, Object> params) {
+		if (params.containsKey(OUTPUTS_PARAMETER)
+				|| params.containsKey(LAZY_RESULTS_PARAMETER)) {
+			params = new HashMap<String, Object>(params);
+			requestedOutputs = getRequestedOutputs(params
+					.remove(OUTPUTS_PARAMETER));
+			Object lazy = params.remove(LAZY_RESULTS_PARAMETER);
+			lazyResults = lazy != null
+					&& Boolean.valueOf(lazy.toString()).booleanValue();
+		}
+		return params;
+	}
+
+	// Deletes the layers of the execution that are not managed by a group,
+	// and records its metrics
+	void finishExecution() {
+		long start = System.nanoTime();
+		try {
+			if (processGroup == null){
+				deleteIntermediateLayers();
+			}
+			if (appProcessGroup == null) {
+				deleteExportedLayers();
+			}
+			if (processGroup == null && appProcessGroup == null) {
+				// only removed if no file in it is still in use
+				new File(tempLayersFolder).delete();
+			}
+		} finally {
+			metrics.addTime(Phase.CLEANUP, start);
+			metrics.finish();
+			ExternalProcessMetrics.getInstance().record(metrics);
 		}
-		return result;
-	
 	}
 	
 	public void deleteIntermediateLayers() {
 		if (isCleared) {
 		    return;
 		}
-		final Collection<String> layers = intermediateLayers.values();
-		File[] filesToDelete = new File(tempLayersFolder).listFiles(new FileFilter() {
-		    public boolean accept(File f) {
-			String filename = f.getName();
-			for (final String layer : layers) {
-			    String baseFilename = new File(layer).getName();
-			    baseFilename = baseFilename.substring(0, baseFilename.lastIndexOf("."));
-			    if (filename.contains(baseFilename)) {
-				return true;
-			    }
-			}
-			return false;
-		    }
-		});
+		File[] filesToDelete = listLayerFiles(tempLayersFolder,
+				intermediateLayers.values());
 		for (File file : filesToDelete) {
 		    file.delete();
 		}
 		isCleared = true;
+		releaseCacheEntries();
 	}
 
 	public abstract void deleteExportedLayers();
 
+	// Returns the files the results of the last execution were read from, or
+	// null if none of them is kept once it has finished
+	protected Collection<String> getResultFilenames() {
+		return null;
+	}
+
+	// Deletes the files the results of the last execution were read from,
+	// once they have been copied and are no longer used
+	void deleteResultLayers() {
+		Collection<String> filenames = getResultFilenames();
+		if (filenames != null) {
+			deleteLayerFiles(filenames);
+		}
+		if (processGroup == null && appProcessGroup == null) {
+			new File(tempLayersFolder).delete();
+		}
+	}
+
+	// Deletes the files of the given layers, along with those next to them
+	// with the same name. Files that are still in use, such as mapped grids
+	// on Windows, are deleted when the JVM exits
+	protected static void deleteLayerFiles(Collection<String> layers) {
+		for (String layer : layers) {
+			File folder = new File(layer).getAbsoluteFile().getParentFile();
+			for (File file : listLayerFiles(folder.getPath(), Collections
+					.singletonList(layer))) {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	// Returns the files in a folder that belong to the given layers, that is,
+	// those with the same name up to the first dot, such as the .prj and .shx
+	// files of a shapefile
+	protected static File[] listLayerFiles(String folder,
+			Collection<String> layers) {
+		final Set<String> basenames = new HashSet<String>();
+		for (String layer : layers) {
+			basenames.add(getBasename(new File(layer).getName()));
+		}
+		File[] files = new File(folder).listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return basenames.contains(getBasename(f.getName()));
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private static String getBasename(String filename) {
+		int idx = filename.indexOf(".");
+		return idx < 0 ? filename : filename.substring(0, idx);
+	}
+
+	// Layers already in the format of the external app, because another
+	// process in the group has exported or created them (including the
+	// outputs of earlier steps in a ProcessChain), are not exported again.
+	// Returns true if the layer is one of them
+	protected boolean addGroupLayer(Object layer) {
+		if (appProcessGroup == null) {
+			return false;
+		}
+		String[] filenames = appProcessGroup.getLayerFilenames(layer);
+		if (filenames == null) {
+			return false;
+		}
+		exportedLayers.put(layer, filenames);
+		metrics.addGroupReuse();
+		return true;
+	}
+
+	// Running the process as a step of a ProcessChain. prepareStep() exports
+	// the inputs and returns the commands running the algorithm, which are
+	// added to the batch job of the step's branch. Once runBatch() has run
+	// that job, readStepResults() opens the outputs that have been requested.
+	// Processes that cannot be chained return null from prepareStep()
+
+	protected List<String> prepareStep(Map<String, Object> params,
+			ProgressListener progress) throws ProcessException {
+		return null;
+	}
+
+	// Returns the files (or layer names) of an output, in the format of the
+	// external app, once the step has been prepared
+	protected String[] getOutputLayerFilenames(String output) {
+		return null;
+	}
+
+	protected void runBatch(List<String> commands, ProgressListener progress)
+			throws ProcessException {
+		throw new ProcessException(name + " cannot be run in a batch job");
+	}
+
+	protected Map<String, Object> readStepResults() throws ProcessException {
+		throw new ProcessException(name + " cannot be run in a batch job");
+	}
+
+	// Runs the process as a single step, recording the time of each phase.
+	// Time spent exporting layers while the step is prepared is recorded as
+	// EXPORT, not PREPARE
+	protected Map<String, Object> runSteps(Map<String, Object> params,
+			ProgressListener progress) throws ProcessException {
+		List<String> commands = timePrepareStep(params, progress);
+		timeRunBatch(commands, progress);
+		return timeReadStepResults();
+	}
+
+	List<String> timePrepareStep(Map<String, Object> params,
+			ProgressListener progress) {
+		long start = System.nanoTime();
+		long exportTime = metrics.getNanos(Phase.EXPORT);
+		try {
+			return prepareStep(params, progress);
+		} finally {
+			metrics.addNanos(Phase.PREPARE, System.nanoTime() - start
+					- (metrics.getNanos(Phase.EXPORT) - exportTime));
+		}
+	}
+
+	void timeRunBatch(List<String> commands, ProgressListener progress) {
+		long start = System.nanoTime();
+		try {
+			runBatch(commands, progress);
+		} finally {
+			metrics.addTime(Phase.RUN, start);
+		}
+	}
+
+	Map<String, Object> timeReadStepResults() {
+		long start = System.nanoTime();
+		try {
+			return readStepResults();
+		} finally {
+			metrics.addTime(Phase.READ, start);
+		}
+	}
+
+	// Creates a new process sharing the definition (name, description and
+	// parameters) of this one, but with its own execution state
+	public abstract ExternalProcess newInstance();
+
 	protected abstract Map<String, Object> _execute(Map<String, Object> params,
 			ProgressListener progress) throws ProcessException;
 	
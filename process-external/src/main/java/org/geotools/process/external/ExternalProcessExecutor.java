@@ -0,0 +1,267 @@
+package org.geotools.process.external;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.process.ProcessException;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Runs the child processes of external applications (grass64, saga_cmd...),
+ * allowing at most a given number of them to run at the same time. Calls
+ * exceeding that number are queued in arrival order until a slot is freed.
+ *
+ * Each call can be given a timeout, and is canceled when the
+ * ProgressListener passed to it is canceled. In both cases the child process
+ * is destroyed and a ProcessException is thrown.
+ *
+ * The pool size defaults to the number of available processors, and can be
+ * set with the org.geotools.process.external.poolSize system property. The
+ * default timeout (in seconds, 0 meaning no timeout) can be set with the
+ * org.geotools.process.external.timeout system property.
+ *
+ */
+public class ExternalProcessExecutor {
+
+	public static final String POOL_SIZE_PROPERTY = "org.geotools.process.external.poolSize";
+	public static final String TIMEOUT_PROPERTY = "org.geotools.process.external.timeout";
+
+	// how often cancellation and timeouts are checked, in milliseconds
+	private static final long POLL_INTERVAL = 50;
+
+	private static ExternalProcessExecutor instance;
+
+	private final int poolSize;
+	private final Semaphore slots;
+	private final ExecutorService jobs;
+
+	/**
+	 * Called once a child process has been started, so its output and error
+	 * streams can be consumed.
+	 */
+	public interface StreamHandler {
+		public void started(java.lang.Process process);
+	}
+
+	public ExternalProcessExecutor(int poolSize) {
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be positive: "
+					+ poolSize);
+		}
+		this.poolSize = poolSize;
+		slots = new Semaphore(poolSize, true);
+		jobs = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "gt-external-process");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public static synchronized ExternalProcessExecutor getInstance() {
+		if (instance == null) {
+			int size = Runtime.getRuntime().availableProcessors();
+			String prop = System.getProperty(POOL_SIZE_PROPERTY);
+			if (prop != null) {
+				try {
+					size = Integer.parseInt(prop.trim());
+				} catch (NumberFormatException e) {
+					// we keep the default
+				}
+			}
+			instance = new ExternalProcessExecutor(Math.max(1, size));
+		}
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared executor. The previous one is shut down, but calls
+	 * already running on it are allowed to finish.
+	 */
+	public static synchronized void setInstance(ExternalProcessExecutor executor) {
+		if (instance != null && instance != executor) {
+			instance.shutdown();
+		}
+		instance = executor;
+	}
+
+	/**
+	 * Returns the default timeout for a call, in milliseconds. 0 means no
+	 * timeout
+	 */
+	public static long getDefaultTimeout() {
+		String prop = System.getProperty(TIMEOUT_PROPERTY);
+		if (prop != null) {
+			try {
+				return Math.max(0, Long.parseLong(prop.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// we use no timeout
+			}
+		}
+		return 0;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	// the number of child processes currently running
+	public int getActiveCount() {
+		return poolSize - slots.availablePermits();
+	}
+
+	// the number of calls waiting for a free slot
+	public int getQueueLength() {
+		return slots.getQueueLength();
+	}
+
+	/**
+	 * Starts a child process as soon as there is a free slot and waits for it
+	 * to finish.
+	 *
+	 * @param pb
+	 *            the ProcessBuilder describing the child process
+	 * @param handler
+	 *            a handler to consume the streams of the child process. Can be
+	 *            null
+	 * @param progress
+	 *            a ProgressListener. If it is canceled, the call is aborted.
+	 *            Can be null
+	 * @param timeout
+	 *            the maximum time in milliseconds to wait for the call to
+	 *            finish, including the time spent in the queue. 0 means no
+	 *            timeout
+	 * @return the exit value of the child process
+	 */
+	public int execute(ProcessBuilder pb, StreamHandler handler,
+			ProgressListener progress, long timeout) throws ProcessException {
+
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+				: Long.MAX_VALUE;
+		acquire(progress, timeout);
+
+		final java.lang.Process process;
+		try {
+			try {
+				process = pb.start();
+			} catch (IOException e) {
+				throw new ProcessException("Error starting external process:\n"
+						+ e.getMessage());
+			}
+			if (handler != null) {
+				handler.started(process);
+			}
+			final CountDownLatch finished = new CountDownLatch(1);
+			Thread waiter = new Thread("gt-external-process-waiter") {
+				public void run() {
+					try {
+						process.waitFor();
+					} catch (InterruptedException e) {
+						// the process is destroyed by the caller
+					}
+					finished.countDown();
+				}
+			};
+			waiter.setDaemon(true);
+			waiter.start();
+			try {
+				while (!finished.await(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					try {
+						checkAborted(progress, deadline, timeout);
+					} catch (ProcessException e) {
+						process.destroy();
+						throw e;
+					}
+				}
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+				throw new ProcessException("Interrupted while running "
+						+ pb.command());
+			}
+			return process.exitValue();
+		} finally {
+			release();
+		}
+
+	}
+
+	/**
+	 * Waits for a free slot and takes it. This is used to run work in child
+	 * processes that are not started by this executor, such as long-lived
+	 * sessions of an external app. The slot has to be returned by calling
+	 * release()
+	 *
+	 * @param progress
+	 *            a ProgressListener. If it is canceled, waiting is aborted.
+	 *            Can be null
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds. 0 means no timeout
+	 */
+	public void acquire(ProgressListener progress, long timeout)
+			throws ProcessException {
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+				: Long.MAX_VALUE;
+		try {
+			while (!slots.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+				checkAborted(progress, deadline, timeout);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProcessException(
+					"Interrupted while waiting to run an external process");
+		}
+	}
+
+	public void release() {
+		slots.release();
+	}
+
+	/**
+	 * Executes a process asynchronously. Child processes started by it are
+	 * still limited by the size of this executor's pool.
+	 */
+	public Future<Map<String, Object>> submit(
+			final org.geotools.process.Process process,
+			final Map<String, Object> params, final ProgressListener progress) {
+		return jobs.submit(new Callable<Map<String, Object>>() {
+			public Map<String, Object> call() throws Exception {
+				return process.execute(params, progress);
+			}
+		});
+	}
+
+	/**
+	 * Runs a task asynchronously, such as a batch job with several
+	 * processes. Child processes started by it are still limited by the size
+	 * of this executor's pool.
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return jobs.submit(task);
+	}
+
+	public void shutdown() {
+		jobs.shutdown();
+	}
+
+	private void checkAborted(ProgressListener progress, long deadline,
+			long timeout) {
+		if (progress != null && progress.isCanceled()) {
+			throw new ProcessException("External process canceled");
+		}
+		if (System.currentTimeMillis() > deadline) {
+			throw new ProcessException("External process timed out after "
+					+ timeout + " ms");
+		}
+	}
+
+}
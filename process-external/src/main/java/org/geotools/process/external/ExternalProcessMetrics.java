@@ -0,0 +1,212 @@
+package org.geotools.process.external;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects the metrics of the executions of external processes, aggregating
+ * them by algorithm, and passes them to the registered ExecutionListeners.
+ *
+ * The shared instance registers itself, and the metrics of each algorithm,
+ * as JMX MBeans in the platform MBean server, under the
+ * org.geotools.process.external domain. This can be disabled by setting the
+ * org.geotools.process.external.jmx system property to false.
+ *
+ */
+public class ExternalProcessMetrics implements ExternalProcessMetricsMBean {
+
+	public static final String JMX_PROPERTY = "org.geotools.process.external.jmx";
+
+	private static final String DOMAIN = "org.geotools.process.external";
+
+	private static ExternalProcessMetrics instance;
+
+	private final Map<String, AlgorithmMetrics> algorithms = new LinkedHashMap<String, AlgorithmMetrics>();
+	private final List<ExecutionListener> listeners = new CopyOnWriteArrayList<ExecutionListener>();
+	private boolean registered = false;
+
+	public static synchronized ExternalProcessMetrics getInstance() {
+		if (instance == null) {
+			instance = new ExternalProcessMetrics();
+			if (!"false".equalsIgnoreCase(System.getProperty(JMX_PROPERTY))) {
+				instance.register();
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared instance. The previous one is unregistered from
+	 * JMX
+	 */
+	public static synchronized void setInstance(ExternalProcessMetrics metrics) {
+		if (instance != null && instance != metrics) {
+			instance.unregister();
+		}
+		instance = metrics;
+	}
+
+	public void addListener(ExecutionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ExecutionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Records the metrics of a finished execution
+	 */
+	public void record(ExecutionMetrics metrics) {
+		getAlgorithmMetrics(metrics.getAlgorithm()).add(metrics);
+		for (ExecutionListener listener : listeners) {
+			try {
+				listener.executionFinished(metrics);
+			} catch (RuntimeException e) {
+				// a faulty listener should not break the execution
+			}
+		}
+	}
+
+	/**
+	 * Returns the aggregated metrics of an algorithm
+	 */
+	public synchronized AlgorithmMetrics getAlgorithmMetrics(String algorithm) {
+		AlgorithmMetrics metrics = algorithms.get(algorithm);
+		if (metrics == null) {
+			metrics = new AlgorithmMetrics(algorithm);
+			algorithms.put(algorithm, metrics);
+			if (registered) {
+				register(metrics, getObjectName(algorithm));
+			}
+		}
+		return metrics;
+	}
+
+	public synchronized String[] getAlgorithms() {
+		return algorithms.keySet().toArray(new String[0]);
+	}
+
+	public synchronized long getExecutionCount() {
+		long count = 0;
+		for (AlgorithmMetrics metrics : algorithms.values()) {
+			count += metrics.getExecutionCount();
+		}
+		return count;
+	}
+
+	public synchronized long getFailureCount() {
+		long count = 0;
+		for (AlgorithmMetrics metrics : algorithms.values()) {
+			count += metrics.getFailureCount();
+		}
+		return count;
+	}
+
+	public long getCacheHits() {
+		return ExportCache.getInstance().getHits();
+	}
+
+	public long getCacheMisses() {
+		return ExportCache.getInstance().getMisses();
+	}
+
+	public long getCacheBytesSaved() {
+		return ExportCache.getInstance().getBytesSaved();
+	}
+
+	public long getCacheSize() {
+		return ExportCache.getInstance().getSize();
+	}
+
+	public int getActiveProcesses() {
+		return ExternalProcessExecutor.getInstance().getActiveCount();
+	}
+
+	public int getQueuedProcesses() {
+		return ExternalProcessExecutor.getInstance().getQueueLength();
+	}
+
+	/**
+	 * Discards the metrics of all algorithms
+	 */
+	public synchronized void reset() {
+		List<String> names = new ArrayList<String>(algorithms.keySet());
+		algorithms.clear();
+		if (registered) {
+			for (String name : names) {
+				unregister(getObjectName(name));
+			}
+		}
+	}
+
+	/**
+	 * Registers this object and the metrics of each algorithm in the
+	 * platform MBean server
+	 */
+	public synchronized void register() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		register(this, getObjectName(null));
+		for (AlgorithmMetrics metrics : algorithms.values()) {
+			register(metrics, getObjectName(metrics.getAlgorithm()));
+		}
+	}
+
+	public synchronized void unregister() {
+		if (!registered) {
+			return;
+		}
+		registered = false;
+		unregister(getObjectName(null));
+		for (String name : algorithms.keySet()) {
+			unregister(getObjectName(name));
+		}
+	}
+
+	private static ObjectName getObjectName(String algorithm) {
+		try {
+			if (algorithm == null) {
+				return new ObjectName(DOMAIN + ":type=ExternalProcessMetrics");
+			}
+			return new ObjectName(DOMAIN + ":type=AlgorithmMetrics,name="
+					+ ObjectName.quote(algorithm));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Wrong algorithm name: "
+					+ algorithm);
+		}
+	}
+
+	private static void register(Object mbean, ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(mbean, name);
+		} catch (Exception e) {
+			// metrics are still available through listeners
+		}
+	}
+
+	private static void unregister(ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			// it was already unregistered
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.geotools.process.external;
+
+/**
+ * JMX view of the metrics of all external processes, and of the shared
+ * ExportCache and ExternalProcessExecutor.
+ *
+ */
+public interface ExternalProcessMetricsMBean {
+
+	public String[] getAlgorithms();
+
+	public long getExecutionCount();
+
+	public long getFailureCount();
+
+	public long getCacheHits();
+
+	public long getCacheMisses();
+
+	public long getCacheBytesSaved();
+
+	public long getCacheSize();
+
+	public int getActiveProcesses();
+
+	public int getQueuedProcesses();
+
+	public void reset();
+
+}
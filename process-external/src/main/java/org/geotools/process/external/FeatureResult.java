@@ -0,0 +1,104 @@
+package org.geotools.process.external;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.process.ProcessException;
+import org.opengis.filter.Filter;
+
+/**
+ * A lazy handle to a vector result, stored in a shapefile.
+ *
+ * The collections it returns are backed by the file, so features are read
+ * as they are iterated instead of being loaded in memory.
+ *
+ */
+public class FeatureResult extends LazyResult {
+
+	private DataStore dataStore;
+	private FeatureSource source;
+	private AppSpecificProcessGroup group;
+	private String[] groupFilenames;
+
+	public FeatureResult(String filename) {
+		super(filename);
+	}
+
+	/**
+	 * Sets the process group that the collection returned by getFeatures()
+	 * should be added to, along with the files of the external app it comes
+	 * from
+	 */
+	public synchronized void setProcessGroup(AppSpecificProcessGroup group,
+			String[] filenames) {
+		this.group = group;
+		this.groupFilenames = filenames;
+	}
+
+	public synchronized FeatureSource getFeatureSource()
+			throws ProcessException {
+		if (source == null) {
+			try {
+				Map map = new HashMap();
+				map.put("url", getFile().toURI().toURL());
+				dataStore = DataStoreFinder.getDataStore(map);
+				if (dataStore == null) {
+					throw new ProcessException("Cannot read result layer "
+							+ filename);
+				}
+				String typeName = dataStore.getTypeNames()[0];
+				source = dataStore.getFeatureSource(typeName);
+			} catch (IOException e) {
+				throw new ProcessException("Error reading result layers:\n"
+						+ e.getMessage());
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * Returns all the features in the result
+	 */
+	public FeatureCollection getFeatures() throws ProcessException {
+		try {
+			FeatureCollection fc = getFeatureSource().getFeatures();
+			synchronized (this) {
+				if (group != null) {
+					group.addLayerFilename(fc, groupFilenames);
+				}
+			}
+			return fc;
+		} catch (IOException e) {
+			throw new ProcessException("Error reading result layers:\n"
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the features in the result matching a filter
+	 */
+	public FeatureCollection getFeatures(Filter filter)
+			throws ProcessException {
+		try {
+			return getFeatureSource().getFeatures(filter);
+		} catch (IOException e) {
+			throw new ProcessException("Error reading result layers:\n"
+					+ e.getMessage());
+		}
+	}
+
+	public synchronized void dispose() {
+		if (dataStore != null) {
+			dataStore.dispose();
+			dataStore = null;
+			source = null;
+		}
+		deleteFiles();
+	}
+
+}
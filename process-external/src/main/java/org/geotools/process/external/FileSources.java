@@ -0,0 +1,194 @@
+package org.geotools.process.external;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.coverage.grid.io.UnknownFormat;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.coverage.grid.GridEnvelope;
+
+/**
+ * Keeps track of the files GeoTools layers were read from, so they can be
+ * passed to external apps directly instead of being exported again.
+ *
+ * A grid coverage is considered file-based if it was registered here or if it
+ * has the source file property set by some coverage readers, and if its grid
+ * geometry, CRS and number of bands still match those of the file (that is, it
+ * has not been cropped, reprojected or otherwise modified). Only formats that
+ * external apps can read through GDAL are accepted.
+ *
+ * Feature collections do not expose the store they come from, so they have to
+ * be registered here. Only shapefiles are accepted, since that is the format
+ * external apps are given vector layers in. The getFeatures() and
+ * getCoverage() methods read a file and register the resulting layer.
+ *
+ */
+public class FileSources {
+
+	// The coverage property with the source file, as set by coverage readers
+	public static final String FILE_SOURCE_PROPERTY = "OriginalFileSource";
+
+	// extensions of raster files that can be read by GDAL
+	private static final String[] RASTER_EXTENSIONS = new String[] { "tif",
+			"tiff", "asc", "img", "dem", "bil", "jp2", "ecw", "sid", "nc" };
+
+	private static final Map<Object, File> sources = Collections
+			.synchronizedMap(new WeakHashMap<Object, File>());
+
+	/**
+	 * Registers the file a layer was read from. The layer should contain all
+	 * the data in the file, unfiltered and unmodified
+	 */
+	public static void register(Object layer, File file) {
+		sources.put(layer, file.getAbsoluteFile());
+	}
+
+	/**
+	 * Returns the file a grid coverage was read from, or null if it is not
+	 * file-based or it has been modified after reading it
+	 */
+	public static File getSourceFile(GridCoverage2D gc) {
+		File file = sources.get(gc);
+		boolean registered = file != null;
+		if (file == null) {
+			Object prop = gc.getProperty(FILE_SOURCE_PROPERTY);
+			if (prop instanceof String) {
+				file = new File((String) prop);
+			} else if (prop instanceof File) {
+				file = (File) prop;
+			}
+		}
+		if (file == null || !file.isFile() || !hasRasterExtension(file)) {
+			return null;
+		}
+		if (!registered) {
+			if (!matchesSource(gc, file)) {
+				return null;
+			}
+			// we do not have to check it again
+			register(gc, file);
+		}
+		return file;
+	}
+
+	/**
+	 * Returns the shapefile a feature collection was read from, or null if it
+	 * is not file-based or it was read from another format
+	 */
+	public static File getSourceFile(FeatureCollection fc) {
+		File file = sources.get(fc);
+		if (file == null || !file.isFile()
+				|| !file.getName().toLowerCase().endsWith(".shp")) {
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * Reads a grid coverage from a file, and registers the file as the source
+	 * of the returned coverage
+	 */
+	public static GridCoverage2D getCoverage(File file) throws IOException {
+		AbstractGridFormat format = GridFormatFinder.findFormat(file);
+		if (format == null || format instanceof UnknownFormat) {
+			throw new IOException("Unknown raster format: " + file);
+		}
+		AbstractGridCoverage2DReader reader = format.getReader(file);
+		GridCoverage2D gc = (GridCoverage2D) reader.read(null);
+		register(gc, file);
+		return gc;
+	}
+
+	/**
+	 * Reads all the features in a file, and registers it as the source of the
+	 * returned collection if it is a shapefile
+	 */
+	public static FeatureCollection getFeatures(File file) throws IOException {
+		Map<String, Serializable> map = new HashMap<String, Serializable>();
+		map.put("url", file.toURI().toURL());
+		DataStore dataStore = DataStoreFinder.getDataStore(map);
+		if (dataStore == null) {
+			throw new IOException("Cannot read features from " + file);
+		}
+		String typeName = dataStore.getTypeNames()[0];
+		FeatureCollection fc = dataStore.getFeatureSource(typeName)
+				.getFeatures();
+		// other formats are exported to a shapefile as usual
+		if (dataStore instanceof ShapefileDataStore) {
+			register(fc, file);
+		}
+		return fc;
+	}
+
+	private static boolean hasRasterExtension(File file) {
+		String name = file.getName().toLowerCase();
+		for (int i = 0; i < RASTER_EXTENSIONS.length; i++) {
+			if (name.endsWith("." + RASTER_EXTENSIONS[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// checks that the coverage contains the whole file, as it is stored in
+	// it
+	private static boolean matchesSource(GridCoverage2D gc, File file) {
+		AbstractGridFormat format = GridFormatFinder.findFormat(file);
+		if (format == null || format instanceof UnknownFormat) {
+			return false;
+		}
+		AbstractGridCoverage2DReader reader = null;
+		try {
+			reader = format.getReader(file);
+			if (reader == null) {
+				return false;
+			}
+			if (!CRS.equalsIgnoreMetadata(reader.getCrs(),
+					gc.getCoordinateReferenceSystem())) {
+				return false;
+			}
+			GridEnvelope range = reader.getOriginalGridRange();
+			GridEnvelope gcRange = gc.getGridGeometry().getGridRange();
+			if (range.getDimension() != gcRange.getDimension()) {
+				return false;
+			}
+			for (int i = 0; i < range.getDimension(); i++) {
+				if (range.getLow(i) != gcRange.getLow(i)
+						|| range.getHigh(i) != gcRange.getHigh(i)) {
+					return false;
+				}
+			}
+			GeneralEnvelope envelope = new GeneralEnvelope(gc.getEnvelope());
+			if (!envelope.equals(reader.getOriginalEnvelope(), 1e-6, true)) {
+				return false;
+			}
+			// reading is deferred, so this just reads the file metadata
+			GridCoverage2D original = (GridCoverage2D) reader.read(null);
+			boolean sameBands = original.getNumSampleDimensions() == gc
+					.getNumSampleDimensions();
+			original.dispose(false);
+			return sameBands;
+		} catch (Exception e) {
+			return false;
+		} finally {
+			if (reader != null) {
+				reader.dispose();
+			}
+		}
+	}
+
+}
@@ -8,21 +8,21 @@ public class GeneralProcessGroup extends ProcessGroup{
 	//by all external factories. This should apply to all factories.
 	private HashMap<Object, String> layerFilenames = new HashMap<Object, String>();
 	
-	public String getLayerFilename(Object obj) {
+	public synchronized String getLayerFilename(Object obj) {
 		return layerFilenames.get(obj);
 	}
 
-	public void addLayerFilename(Object obj, String filename) {
+	public synchronized void addLayerFilename(Object obj, String filename) {
 		layerFilenames.put(obj, filename);
 
 	}
 	
-	public void addProcess(ExternalProcess proc) {
+	public synchronized void addProcess(ExternalProcess proc) {
 		processes.add(proc);
 		proc.setGeneralProcessGroup(this);
 	}
 
-	public void finish() {
+	public synchronized void finish() {
 		for (ExternalProcess process : processes) {
 			process.deleteIntermediateLayers();
 		}
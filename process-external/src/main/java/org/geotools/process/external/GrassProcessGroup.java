@@ -1,10 +1,13 @@
 package org.geotools.process.external;
 
 import org.geotools.process.external.grass.GrassProcess;
+import org.geotools.process.external.grass.GrassSession;
+import org.geotools.process.external.grass.GrassSessionPool;
 
 public class GrassProcessGroup extends AppSpecificProcessGroup {
 
 	String gisdbase = null;
+	GrassSession session = null;
 	
 	@Override
 	public void addProcess(ExternalProcess proc) {
@@ -13,12 +16,51 @@ public class GrassProcessGroup extends AppSpecificProcessGroup {
 		}		
 	}
 	
-	public String getGisdbase() {
+	public synchronized String getGisdbase() {
+		dropDeadSession();
 		return gisdbase;
 	}
 	
-	public void setGisdbase(String gisdbase){
+	public synchronized void setGisdbase(String gisdbase){
 		this.gisdbase = gisdbase;
 	}
 
+	// the warm GRASS session shared by all processes in the group, if any
+	public synchronized GrassSession getSession() {
+		dropDeadSession();
+		return session;
+	}
+
+	// A session killed (on a timeout, for instance) deletes its mapset, so
+	// it is discarded along with the layers of the group, and the next
+	// process in the group starts a new one
+	private void dropDeadSession() {
+		if (session != null && !session.isAlive()) {
+			GrassSessionPool.getInstance().release(session);
+			session = null;
+			gisdbase = null;
+			clearLayerFilenames();
+		}
+	}
+
+	public synchronized void setSession(GrassSession session) {
+		this.session = session;
+	}
+
+	// processes in the group share a mapset, and its region
+	@Override
+	public boolean allowsConcurrentBatches() {
+		return false;
+	}
+
+	@Override
+	public synchronized void finish() {
+		super.finish();
+		if (session != null) {
+			GrassSessionPool.getInstance().release(session);
+			session = null;
+		}
+		gisdbase = null;
+	}
+
 }
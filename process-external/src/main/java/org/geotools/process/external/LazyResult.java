@@ -0,0 +1,56 @@
+package org.geotools.process.external;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * A result of an external process that is only opened when it is first
+ * accessed.
+ *
+ * Processes return results as lazy handles when the "lazyresults" parameter
+ * is set to true. Handles should be disposed once they are no longer used, to
+ * close the files they have opened and delete the ones they own.
+ *
+ */
+public abstract class LazyResult {
+
+	protected final String filename;
+	private boolean deleteOnDispose;
+
+	/**
+	 * @param filename
+	 *            the file to read the result from
+	 */
+	protected LazyResult(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * Returns the file with the result
+	 */
+	public File getFile() {
+		return new File(filename);
+	}
+
+	/**
+	 * Sets whether the handle owns the result file, so it is deleted when the
+	 * handle is disposed. Results of processes in a group are deleted when
+	 * the group is finished instead.
+	 */
+	public synchronized void setDeleteOnDispose(boolean deleteOnDispose) {
+		this.deleteOnDispose = deleteOnDispose;
+	}
+
+	// Deletes the result file, and the ones next to it with the same name, if
+	// the handle owns them
+	protected synchronized void deleteFiles() {
+		if (deleteOnDispose) {
+			ExternalProcess.deleteLayerFiles(Collections
+					.singletonList(filename));
+			deleteOnDispose = false;
+		}
+	}
+
+	public abstract void dispose();
+
+}
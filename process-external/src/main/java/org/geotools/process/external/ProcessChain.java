@@ -0,0 +1,440 @@
+package org.geotools.process.external;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.process.ProcessException;
+import org.geotools.util.NullProgressListener;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.util.ProgressListener;
+
+/**
+ * A pipeline of processes of the same external app, run as a few batch jobs
+ * instead of one per process.
+ *
+ * Steps are added with add(), and the outputs of a step can be used as inputs
+ * of later steps through getOutput(). Nothing is run until execute() is
+ * called. The chain is then split into branches of dependent steps, each run
+ * as a single batch job, so intermediate outputs stay in the format of the
+ * app and are never converted. Branches that do not depend on each other are
+ * run at the same time, if the app allows it.
+ *
+ * Outputs used by later steps are not returned, unless they are requested
+ * with the "outputs" parameter of their step. All other outputs are
+ * converted and returned, and can be retrieved with Step.getResults() once
+ * the chain has been executed.
+ *
+ * Chains are created by AppSpecificProcessGroup.createChain(), and their
+ * intermediate files are deleted when the group is finished.
+ *
+ */
+public class ProcessChain {
+
+	/**
+	 * An output of a step, to be used as an input of a later step.
+	 */
+	public static class Output {
+
+		private final Step step;
+		private final String name;
+
+		private Output(Step step, String name) {
+			this.step = step;
+			this.name = name;
+		}
+
+		public Step getStep() {
+			return step;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the CRS of the output, which is the one of the first input
+		 * layer of its step, or null if it is not known
+		 */
+		public CoordinateReferenceSystem getCoordinateReferenceSystem() {
+			return step.getInputCrs();
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Output)) {
+				return false;
+			}
+			Output other = (Output) obj;
+			return other.step == step && other.name.equals(name);
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(step) * 31 + name.hashCode();
+		}
+
+		public String toString() {
+			return step.process.getName() + ":" + name;
+		}
+
+	}
+
+	/**
+	 * A process in the chain, with its parameters.
+	 */
+	public class Step {
+
+		private final ExternalProcess process;
+		private final Map<String, Object> params;
+		private final Set<Step> dependencies = new HashSet<Step>();
+		private Map<String, Object> results;
+
+		private Step(ExternalProcess process, Map<String, Object> params) {
+			this.process = process;
+			this.params = new HashMap<String, Object>(params);
+		}
+
+		public ExternalProcess getProcess() {
+			return process;
+		}
+
+		/**
+		 * Returns an output of this step, to be used as an input of a later
+		 * one
+		 */
+		public Output getOutput(String name) {
+			for (String key : process.getResultInfo().keySet()) {
+				if (key.equalsIgnoreCase(name)) {
+					return new Output(this, key);
+				}
+			}
+			throw new ProcessException("Unknown output: " + name);
+		}
+
+		/**
+		 * Returns the results of this step, once the chain has been executed.
+		 * Outputs only used by later steps are not included
+		 */
+		public Map<String, Object> getResults() {
+			if (results == null) {
+				throw new ProcessException("The chain has not been executed");
+			}
+			return results;
+		}
+
+		private CoordinateReferenceSystem getInputCrs() {
+			for (Object value : params.values()) {
+				if (value instanceof Object[] && ((Object[]) value).length > 0) {
+					value = ((Object[]) value)[0];
+				}
+				CoordinateReferenceSystem crs = null;
+				if (value instanceof GridCoverage2D) {
+					crs = ((GridCoverage2D) value)
+							.getCoordinateReferenceSystem();
+				} else if (value instanceof FeatureCollection) {
+					crs = ((FeatureCollection) value).getSchema()
+							.getCoordinateReferenceSystem();
+				} else if (value instanceof Output) {
+					crs = ((Output) value).getCoordinateReferenceSystem();
+				}
+				if (crs != null) {
+					return crs;
+				}
+			}
+			return null;
+		}
+
+	}
+
+	// A sequence of steps run as a single batch job, once the branches it
+	// depends on have finished
+	private static class Branch {
+		List<Step> steps = new ArrayList<Step>();
+		Set<Branch> dependencies = new HashSet<Branch>();
+	}
+
+	private final AppSpecificProcessGroup group;
+	private final List<Step> steps = new ArrayList<Step>();
+	private boolean executed = false;
+
+	ProcessChain(AppSpecificProcessGroup group) {
+		this.group = group;
+	}
+
+	/**
+	 * Adds a step to the chain. Outputs of earlier steps can be passed as
+	 * parameters, alone or in arrays, using Step.getOutput()
+	 */
+	public synchronized Step add(ExternalProcess process,
+			Map<String, Object> params) {
+		if (executed) {
+			throw new ProcessException("The chain has already been executed");
+		}
+		group.addProcess(process);
+		if (process.appProcessGroup != group) {
+			throw new ProcessException(process.getName()
+					+ " cannot be run in this process group");
+		}
+		Step step = new Step(process, params);
+		for (Object value : params.values()) {
+			Object[] values = value instanceof Object[] ? (Object[]) value
+					: new Object[] { value };
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] instanceof Output) {
+					Step dependency = ((Output) values[i]).step;
+					if (!steps.contains(dependency)) {
+						throw new ProcessException(values[i]
+								+ " is not an output of an earlier step");
+					}
+					step.dependencies.add(dependency);
+				}
+			}
+		}
+		steps.add(step);
+		return step;
+	}
+
+	public synchronized List<Step> getSteps() {
+		return new ArrayList<Step>(steps);
+	}
+
+	/**
+	 * Runs all the steps of the chain. Results can then be retrieved from
+	 * each step. If a step fails, the other branches are canceled, and the
+	 * error is thrown once all of them have finished
+	 */
+	public synchronized void execute(final ProgressListener progress)
+			throws ProcessException {
+		if (executed) {
+			throw new ProcessException("The chain has already been executed");
+		}
+		executed = true;
+
+		List<Branch> branches = plan();
+		setRequestedOutputs();
+
+		// branches are started at once, and each of them waits for the ones
+		// it depends on
+		final Map<Branch, Future<Object>> futures = new HashMap<Branch, Future<Object>>();
+		ExternalProcessExecutor executor = ExternalProcessExecutor
+				.getInstance();
+		// branches are canceled along with the whole chain, or when another
+		// one fails
+		final AtomicBoolean aborted = new AtomicBoolean(false);
+		final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+		final ProgressListener listener = new NullProgressListener() {
+			@Override
+			public boolean isCanceled() {
+				return aborted.get()
+						|| (progress != null && progress.isCanceled());
+			}
+		};
+		for (final Branch branch : branches) {
+			final Collection<Future<Object>> dependencies = new ArrayList<Future<Object>>();
+			for (Branch dependency : branch.dependencies) {
+				dependencies.add(futures.get(dependency));
+			}
+			futures.put(branch, executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					try {
+						for (Future<Object> dependency : dependencies) {
+							dependency.get();
+						}
+						if (listener.isCanceled()) {
+							throw new ProcessException("Process chain canceled");
+						}
+						run(branch, listener);
+						return null;
+					} catch (Exception e) {
+						// only the error that aborted the chain is reported
+						if (aborted.compareAndSet(false, true)) {
+							firstError.set(e);
+						}
+						throw e;
+					}
+				}
+			}));
+		}
+		// we wait for all the branches, so no temp layers or sessions are
+		// still in use when the chain fails
+		for (Branch branch : branches) {
+			try {
+				futures.get(branch).get();
+			} catch (ExecutionException e) {
+				// thrown below, once all the branches have finished
+				firstError.compareAndSet(null, e);
+			} catch (InterruptedException e) {
+				aborted.set(true);
+				Thread.currentThread().interrupt();
+				throw new ProcessException(
+						"Interrupted while running process chain");
+			}
+		}
+		if (firstError.get() != null) {
+			throw getProcessException(firstError.get());
+		}
+	}
+
+	private static ProcessException getProcessException(Throwable e) {
+		Throwable cause = e;
+		while (cause instanceof ExecutionException) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof ProcessException) {
+			return (ProcessException) cause;
+		}
+		return new ProcessException("Error running process chain:\n"
+				+ cause.getMessage());
+	}
+
+	// Splits the steps into branches. A step is added to the branch of one of
+	// its dependencies if that dependency is the last step of the branch,
+	// and all its other dependencies are in the branch or in branches that
+	// are finished before the branch starts. Otherwise, it starts a new
+	// branch, depending on the branches of all its dependencies.
+	private List<Branch> plan() {
+		List<Branch> branches = new ArrayList<Branch>();
+		if (!group.allowsConcurrentBatches()) {
+			// a single batch job, since branches cannot run at the same time
+			Branch branch = new Branch();
+			branch.steps.addAll(steps);
+			branches.add(branch);
+			return branches;
+		}
+		Map<Step, Branch> branchOfStep = new HashMap<Step, Branch>();
+		for (Step step : steps) {
+			Branch branch = null;
+			for (Step dependency : step.dependencies) {
+				Branch candidate = branchOfStep.get(dependency);
+				List<Step> candidateSteps = candidate.steps;
+				if (candidateSteps.get(candidateSteps.size() - 1) != dependency) {
+					continue;
+				}
+				Set<Branch> finished = getAllDependencies(candidate);
+				boolean canJoin = true;
+				for (Step other : step.dependencies) {
+					Branch otherBranch = branchOfStep.get(other);
+					canJoin &= otherBranch == candidate
+							|| finished.contains(otherBranch);
+				}
+				if (canJoin) {
+					branch = candidate;
+					break;
+				}
+			}
+			if (branch == null) {
+				branch = new Branch();
+				for (Step dependency : step.dependencies) {
+					branch.dependencies.add(branchOfStep.get(dependency));
+				}
+				branches.add(branch);
+			}
+			branch.steps.add(step);
+			branchOfStep.put(step, branch);
+		}
+		return branches;
+	}
+
+	private Set<Branch> getAllDependencies(Branch branch) {
+		Set<Branch> all = new HashSet<Branch>();
+		List<Branch> pending = new ArrayList<Branch>(branch.dependencies);
+		while (!pending.isEmpty()) {
+			Branch dependency = pending.remove(pending.size() - 1);
+			if (all.add(dependency)) {
+				pending.addAll(dependency.dependencies);
+			}
+		}
+		return all;
+	}
+
+	// Outputs used by later steps are not converted, unless the step requests
+	// them explicitly
+	private void setRequestedOutputs() {
+		Map<Step, Set<String>> used = new HashMap<Step, Set<String>>();
+		for (Step step : steps) {
+			used.put(step, new HashSet<String>());
+		}
+		for (Step step : steps) {
+			for (Object value : step.params.values()) {
+				Object[] values = value instanceof Object[] ? (Object[]) value
+						: new Object[] { value };
+				for (int i = 0; i < values.length; i++) {
+					if (values[i] instanceof Output) {
+						Output output = (Output) values[i];
+						used.get(output.step).add(output.name);
+					}
+				}
+			}
+		}
+		for (Step step : steps) {
+			if (step.params.containsKey(ExternalProcess.OUTPUTS_PARAMETER)) {
+				continue;
+			}
+			List<String> requested = new ArrayList<String>();
+			for (String key : step.process.getResultInfo().keySet()) {
+				if (!used.get(step).contains(key)) {
+					requested.add(key);
+				}
+			}
+			step.params.put(ExternalProcess.OUTPUTS_PARAMETER, requested
+					.toArray(new String[0]));
+		}
+	}
+
+	// Prepares the steps of a branch, runs them in a single batch job and
+	// reads their results. The time of the batch job is recorded in the
+	// metrics of the first step, and a failure in those of all of them
+	private void run(Branch branch, ProgressListener progress)
+			throws ProcessException {
+		List<String> commands = new ArrayList<String>();
+		List<ExternalProcess> started = new ArrayList<ExternalProcess>();
+		try {
+			for (Step step : branch.steps) {
+				ExternalProcess process = step.process;
+				process.startExecution();
+				started.add(process);
+				Map<String, Object> params = process
+						.setResultParameters(step.params);
+				List<String> stepCommands = process.timePrepareStep(params,
+						progress);
+				if (stepCommands == null) {
+					throw new ProcessException(process.getName()
+							+ " cannot be run in a process chain");
+				}
+				commands.addAll(stepCommands);
+				// later steps find the outputs in the group, in the format
+				// of the app
+				for (String key : process.getResultInfo().keySet()) {
+					String[] filenames = process.getOutputLayerFilenames(key);
+					if (filenames != null) {
+						group.addLayerFilename(step.getOutput(key), filenames);
+					}
+				}
+			}
+			branch.steps.get(0).process.timeRunBatch(commands, progress);
+			for (Step step : branch.steps) {
+				step.results = step.process.timeReadStepResults();
+			}
+		} catch (RuntimeException e) {
+			for (ExternalProcess process : started) {
+				process.getMetrics().setError(e);
+			}
+			throw e;
+		} finally {
+			for (ExternalProcess process : started) {
+				process.finishExecution();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.geotools.process.external;
+
+import java.io.IOException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * A lazy handle to a raster result, stored by default in a GeoTIFF file.
+ * Handles for other formats override the read() method.
+ *
+ * The whole coverage can be obtained with getCoverage(). Its cells are read
+ * from the file as they are needed. A part of it can be read with
+ * getCoverage(ReferencedEnvelope), so large results can be processed by
+ * windows.
+ *
+ */
+public class RasterResult extends LazyResult {
+
+	private GeoTiffReader reader;
+	private GridCoverage2D coverage;
+	private AppSpecificProcessGroup group;
+	private String[] groupFilenames;
+
+	public RasterResult(String filename) {
+		super(filename);
+	}
+
+	/**
+	 * Sets the process group that the coverage should be added to once it is
+	 * opened, along with the files of the external app it comes from
+	 */
+	public synchronized void setProcessGroup(AppSpecificProcessGroup group,
+			String[] filenames) {
+		this.group = group;
+		this.groupFilenames = filenames;
+	}
+
+	private synchronized GeoTiffReader getReader() throws ProcessException {
+		if (reader == null) {
+			try {
+				reader = new GeoTiffReader(getFile(), new Hints(
+						Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE));
+			} catch (IOException e) {
+				throw new ProcessException("Error reading result layers:\n"
+						+ e.getMessage());
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * Returns the whole coverage
+	 */
+	public synchronized GridCoverage2D getCoverage() throws ProcessException {
+		if (coverage == null) {
+			coverage = read(null);
+			if (group != null) {
+				group.addLayerFilename(coverage, groupFilenames);
+			}
+		}
+		return coverage;
+	}
+
+	/**
+	 * Reads the part of the coverage within an envelope, at its original
+	 * resolution
+	 */
+	public GridCoverage2D getCoverage(ReferencedEnvelope envelope)
+			throws ProcessException {
+		return read(envelope);
+	}
+
+	/**
+	 * Reads the coverage from the result file
+	 *
+	 * @param envelope
+	 *            the envelope to read, or null to read the whole coverage
+	 */
+	protected GridCoverage2D read(ReferencedEnvelope envelope)
+			throws ProcessException {
+		GeoTiffReader reader = getReader();
+		if (envelope == null) {
+			try {
+				return (GridCoverage2D) reader.read(null);
+			} catch (IOException e) {
+				throw new ProcessException("Error reading result layers:\n"
+						+ e.getMessage());
+			}
+		}
+		GeneralEnvelope original = reader.getOriginalEnvelope();
+		GridEnvelope range = reader.getOriginalGridRange();
+		double cellsizeX = original.getSpan(0) / range.getSpan(0);
+		double cellsizeY = original.getSpan(1) / range.getSpan(1);
+		GridEnvelope2D window = new GridEnvelope2D(0, 0, Math.max(1,
+				(int) Math.round(envelope.getWidth() / cellsizeX)), Math.max(1,
+				(int) Math.round(envelope.getHeight() / cellsizeY)));
+		ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D
+				.createValue();
+		gg.setValue(new GridGeometry2D(window, envelope));
+		try {
+			return (GridCoverage2D) reader
+					.read(new GeneralParameterValue[] { gg });
+		} catch (IOException e) {
+			throw new ProcessException("Error reading result layers:\n"
+					+ e.getMessage());
+		}
+	}
+
+	public synchronized void dispose() {
+		if (coverage != null) {
+			coverage.dispose(false);
+			coverage = null;
+		}
+		if (reader != null) {
+			reader.dispose();
+			reader = null;
+		}
+		deleteFiles();
+	}
+
+}
@@ -0,0 +1,294 @@
+package org.geotools.process.external;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.data.Parameter;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.process.ProcessException;
+import org.geotools.referencing.CRS;
+import org.geotools.util.NullProgressListener;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.TransformException;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Runs a tile-safe algorithm on tiles of its raster inputs, and mosaics the
+ * results into a single coverage for each output.
+ *
+ * Each tile is extended with a halo of cells from its neighbours, so focal
+ * algorithms compute the same values they would on the whole layer. The halo
+ * is cropped from the results before mosaicking them. Tiles are run
+ * concurrently through the ExternalProcessExecutor, keeping at most as many
+ * tiles in memory as external processes can run at the same time.
+ *
+ * Only algorithms whose inputs are rasters (all of them with the same grid)
+ * and simple values, and whose outputs are all rasters, can be tiled. Grids
+ * are assumed not to be rotated.
+ *
+ */
+public class TiledExecution {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	private final ExternalProcess process;
+	private final int tileSize;
+	private final int halo;
+
+	/**
+	 * @param process
+	 *            the algorithm to run. Each tile is run by a new instance of
+	 *            it
+	 * @param tileSize
+	 *            the width and height of tiles, in cells
+	 * @param halo
+	 *            the number of cells to add to each side of a tile
+	 */
+	public TiledExecution(ExternalProcess process, int tileSize, int halo) {
+		if (tileSize < 1 || halo < 0) {
+			throw new ProcessException("Wrong tile size (" + tileSize
+					+ ") or halo (" + halo + ")");
+		}
+		this.process = process;
+		this.tileSize = tileSize;
+		this.halo = halo;
+	}
+
+	/**
+	 * Returns true if the algorithm can be run in tiles with the given
+	 * parameters, and the raster inputs are larger than a single tile
+	 */
+	public boolean canRun(Map<String, Object> params) {
+		for (Parameter<?> param : process.getResultInfo().values()) {
+			if (!param.getType().equals(GridCoverage2D.class)) {
+				return false;
+			}
+		}
+		List<String> keys = getRasterKeys(params);
+		if (keys == null || keys.isEmpty()) {
+			return false;
+		}
+		GridCoverage2D reference = (GridCoverage2D) params.get(keys.get(0));
+		for (String key : keys) {
+			if (!hasSameGrid(reference, (GridCoverage2D) params.get(key))) {
+				return false;
+			}
+		}
+		RenderedImage image = reference.getRenderedImage();
+		return image.getWidth() > tileSize || image.getHeight() > tileSize;
+	}
+
+	public Map<String, Object> execute(Map<String, Object> params,
+			final ProgressListener progress) throws ProcessException {
+
+		List<String> keys = getRasterKeys(params);
+		GridCoverage2D reference = (GridCoverage2D) params.get(keys.get(0));
+		RenderedImage image = reference.getRenderedImage();
+		Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(),
+				image.getWidth(), image.getHeight());
+
+		List<Rectangle> tiles = new ArrayList<Rectangle>();
+		for (int y = bounds.y; y < bounds.y + bounds.height; y += tileSize) {
+			for (int x = bounds.x; x < bounds.x + bounds.width; x += tileSize) {
+				tiles.add(new Rectangle(x, y, Math.min(tileSize, bounds.x
+						+ bounds.width - x), Math.min(tileSize, bounds.y
+						+ bounds.height - y)));
+			}
+		}
+
+		// tiles are canceled along with the whole execution
+		ProgressListener tileProgress = new NullProgressListener() {
+			@Override
+			public boolean isCanceled() {
+				return progress != null && progress.isCanceled();
+			}
+		};
+
+		ExternalProcessExecutor executor = ExternalProcessExecutor.getInstance();
+		int maxPending = executor.getPoolSize();
+		LinkedList<Future<Map<String, Object>>> pending = new LinkedList<Future<Map<String, Object>>>();
+		LinkedList<Rectangle> pendingTiles = new LinkedList<Rectangle>();
+		LinkedList<ExternalProcess> pendingProcesses = new LinkedList<ExternalProcess>();
+		HashMap<String, WritableRaster> mosaics = new HashMap<String, WritableRaster>();
+		HashMap<String, GridSampleDimension[]> bands = new HashMap<String, GridSampleDimension[]>();
+
+		try {
+			int next = 0;
+			int finished = 0;
+			while (finished < tiles.size()) {
+				if (next < tiles.size() && pending.size() < maxPending) {
+					Rectangle tile = tiles.get(next++);
+					Rectangle extended = getExtendedTile(tile, bounds);
+					// tiles are mosaicked, so they cannot be lazy
+					Map<String, Object> tileParams = new HashMap<String, Object>(
+							params);
+					tileParams.remove(ExternalProcess.LAZY_RESULTS_PARAMETER);
+					for (String key : keys) {
+						tileParams.put(key, crop((GridCoverage2D) params
+								.get(key), extended));
+					}
+					ExternalProcess tileProcess = process.newInstance();
+					tileProcess.useExportCache = false;
+					pending.add(executor.submit(tileProcess, tileParams,
+							tileProgress));
+					pendingTiles.add(tile);
+					pendingProcesses.add(tileProcess);
+					continue;
+				}
+				Map<String, Object> result = getResult(pending.removeFirst());
+				Rectangle tile = pendingTiles.removeFirst();
+				ExternalProcess tileProcess = pendingProcesses.removeFirst();
+				Rectangle extended = getExtendedTile(tile, bounds);
+				try {
+					Iterator<String> iter = result.keySet().iterator();
+					while (iter.hasNext()) {
+						String key = iter.next();
+						GridCoverage2D gc = (GridCoverage2D) result.get(key);
+						Raster data = gc.getRenderedImage().getData();
+						if (data.getWidth() != extended.width
+								|| data.getHeight() != extended.height) {
+							throw new ProcessException("Result of tile "
+									+ tile
+									+ " does not match the grid of its input");
+						}
+						WritableRaster mosaic = mosaics.get(key);
+						if (mosaic == null) {
+							mosaic = data.createCompatibleWritableRaster(
+									bounds.width, bounds.height);
+							mosaics.put(key, mosaic);
+							bands.put(key, gc.getSampleDimensions());
+						}
+						// we crop the halo
+						mosaic.setRect(data.createChild(data.getMinX()
+								+ tile.x - extended.x, data.getMinY() + tile.y
+								- extended.y, tile.width, tile.height, tile.x
+								- bounds.x, tile.y - bounds.y, null));
+						gc.dispose(false);
+					}
+				} finally {
+					// results are not needed once copied into the mosaics
+					tileProcess.deleteResultLayers();
+				}
+				finished++;
+				if (progress != null) {
+					progress.progress(finished / (float) tiles.size());
+				}
+			}
+		} finally {
+			for (Future<Map<String, Object>> future : pending) {
+				future.cancel(true);
+			}
+		}
+
+		HashMap<String, Object> results = new HashMap<String, Object>();
+		for (String key : mosaics.keySet()) {
+			results.put(key, covFactory.create(key, mosaics.get(key),
+					reference.getEnvelope(), bands.get(key), null, null));
+		}
+		return results;
+
+	}
+
+	// Returns the keys of the raster parameters, or null if there are
+	// parameters that cannot be tiled
+	private List<String> getRasterKeys(Map<String, Object> params) {
+		List<String> keys = new ArrayList<String>();
+		for (String key : params.keySet()) {
+			Object value = params.get(key);
+			if (key.equals(ExternalProcess.OUTPUTS_PARAMETER)
+					|| key.equals(ExternalProcess.LAZY_RESULTS_PARAMETER)) {
+				// handled by each tile
+				continue;
+			}
+			if (value instanceof GridCoverage2D) {
+				keys.add(key);
+			} else if (value instanceof Object[] || value instanceof Envelope
+					|| value instanceof FeatureCollection) {
+				// layers that would have to be split, or explicit extents
+				return null;
+			}
+		}
+		return keys;
+	}
+
+	private boolean hasSameGrid(GridCoverage2D gc, GridCoverage2D other) {
+		if (gc == other) {
+			return true;
+		}
+		if (!CRS.equalsIgnoreMetadata(gc.getCoordinateReferenceSystem(),
+				other.getCoordinateReferenceSystem())) {
+			return false;
+		}
+		if (!gc.getGridGeometry().getGridRange2D().equals(
+				other.getGridGeometry().getGridRange2D())) {
+			return false;
+		}
+		return new GeneralEnvelope(gc.getEnvelope()).equals(
+				other.getEnvelope(), 1e-6, true);
+	}
+
+	private Rectangle getExtendedTile(Rectangle tile, Rectangle bounds) {
+		Rectangle extended = new Rectangle(tile);
+		extended.grow(halo, halo);
+		return extended.intersection(bounds);
+	}
+
+	// Copies part of a coverage into a new one
+	GridCoverage2D crop(GridCoverage2D gc, Rectangle rect) {
+		Raster data = gc.getRenderedImage().getData(rect);
+		WritableRaster raster = data.createCompatibleWritableRaster(
+				rect.width, rect.height);
+		raster.setRect(-rect.x, -rect.y, data);
+
+		// the envelope of the tile cells, whatever the order of the axes
+		GeneralEnvelope tileEnvelope;
+		try {
+			tileEnvelope = CRS.transform(gc.getGridGeometry().getGridToCRS(
+					PixelInCell.CELL_CORNER), new GeneralEnvelope(
+					new Rectangle2D.Double(rect.x, rect.y, rect.width,
+							rect.height)));
+		} catch (TransformException e) {
+			throw new ProcessException("Error computing the envelope of tile "
+					+ rect + ":\n" + e.getMessage());
+		}
+		tileEnvelope.setCoordinateReferenceSystem(gc
+				.getCoordinateReferenceSystem());
+
+		return covFactory.create(gc.getName(), raster, tileEnvelope, gc
+				.getSampleDimensions(), null, null);
+	}
+
+	private Map<String, Object> getResult(Future<Map<String, Object>> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProcessException("Tiled execution interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ProcessException) {
+				throw (ProcessException) e.getCause();
+			}
+			throw new ProcessException("Error running tile:\n"
+					+ e.getCause().getMessage());
+		}
+	}
+
+}
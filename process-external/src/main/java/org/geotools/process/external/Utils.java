@@ -1,11 +1,13 @@
 package org.geotools.process.external;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Utils {
 
-	protected static int nTempFilenames = 0;
+	// shared by all threads creating temporary files
+	protected static final AtomicInteger nTempFilenames = new AtomicInteger();
 
 	public static boolean isWindows() {
 		final String os = System.getProperty("os.name").toLowerCase();
@@ -14,12 +16,12 @@ public class Utils {
 
 	public static String getTempFilename(String prefix, String ext) {
 		String filename = prefix + Long.toString(System.currentTimeMillis())
-				+ "_" + Integer.toString(nTempFilenames) + "." + ext;
-		nTempFilenames++;
+				+ "_" + Integer.toString(nTempFilenames.getAndIncrement())
+				+ "." + ext;
 		return getRootExchangeFolder() + File.separator + filename;
 	}
 
-	private static String getRootExchangeFolder() {
+	private static synchronized String getRootExchangeFolder() {
 		File baseDir = new File(System.getProperty("java.io.tmpdir"),
 				"gt_exchange");
 		if (!baseDir.exists()) {
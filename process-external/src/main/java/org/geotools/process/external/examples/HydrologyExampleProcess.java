@@ -4,8 +4,9 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.NameImpl;
 import org.geotools.process.ProcessException;
+import org.geotools.process.external.ProcessChain;
+import org.geotools.process.external.ProcessChain.Step;
 import org.geotools.process.external.SagaProcessGroup;
-import org.geotools.process.external.saga.SagaProcess;
 import org.geotools.process.external.saga.SagaProcessFactory;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
@@ -39,61 +40,52 @@ public class HydrologyExampleProcess implements GSProcess {
 		
 		SagaProcessFactory fact = new SagaProcessFactory();
 		SagaProcessGroup pg = new SagaProcessGroup();
+
+		// the steps are chained, so they are run in a few SAGA batch jobs
+		// and intermediate layers are kept as SAGA grids. Only the outputs
+		// used by the next steps are computed, and only the final one is
+		// read back
+		ProcessChain chain = pg.createChain();
+		String[] none = new String[0];
+
+		Step carea = chain.add(fact.create(new NameImpl("saga","catchmentareaparallel")),
+				new KVP("elevation", dem, "method", Integer.valueOf(4),
+						"outputs", none));
 		
-		SagaProcess careaproc = fact.create(new NameImpl("saga","catchmentareaparallel"));
-		pg.addProcess(careaproc);
-		GridCoverage2D carea = (GridCoverage2D) careaproc.execute(
-				new KVP("elevation", dem, "method", Integer.valueOf(4)),progress).get("carea");
-		
-//		SagaProcess upslopeareaproc = fact.create(new NameImpl("saga","upslopearea"));
-//		pg.addProcess(upslopeareaproc);
-//		GridCoverage2D mask = (GridCoverage2D) upslopeareaproc.execute(
-//				new KVP("elevation", dem, "target_pt_x", Double.valueOf(pt.x), "target_pt_y", Double.valueOf(pt.y)),
-//				progress).get("area");
+//		Step mask = chain.add(fact.create(new NameImpl("saga","upslopearea")),
+//				new KVP("elevation", dem, "target_pt_x", Double.valueOf(pt.x), "target_pt_y", Double.valueOf(pt.y)));
 		
-		SagaProcess channelproc = fact.create(new NameImpl("saga","channelnetwork"));
-		pg.addProcess(channelproc);
-		GridCoverage2D channels = (GridCoverage2D) channelproc.execute(
+		Step channels = chain.add(fact.create(new NameImpl("saga","channelnetwork")),
 				new KVP("elevation", dem, "init_method", Integer.valueOf(2), 
 						"init_value", Double.valueOf(threshold),
-						"init_grid", carea),
-				progress).get("chnlntwrk");
+						"init_grid", carea.getOutput("carea"), "outputs", none));
 		
-		SagaProcess basinsproc = fact.create(new NameImpl("saga","watershedbasins"));
-		pg.addProcess(basinsproc);
-		GridCoverage2D basins = (GridCoverage2D) basinsproc.execute(
+		Step basins = chain.add(fact.create(new NameImpl("saga","watershedbasins")),
 				new KVP("elevation", dem, "init_method", Integer.valueOf(2), 
-						"channels", channels),
-				progress).get("basins");
+						"channels", channels.getOutput("chnlntwrk"), "outputs", none));
 			
-		SagaProcess vectorisinproc = fact.create(new NameImpl("saga","vectorisinggridclasses"));
-		pg.addProcess(vectorisinproc);
-		FeatureCollection vectorBasins = (FeatureCollection) vectorisinproc.execute(
-				new KVP("grid", basins, "area", carea, 
-						"class_all", Integer.valueOf(1)),
-				progress).get("polygons");
+		Step vectorBasins = chain.add(fact.create(new NameImpl("saga","vectorisinggridclasses")),
+				new KVP("grid", basins.getOutput("basins"), "area", carea.getOutput("carea"), 
+						"class_all", Integer.valueOf(1), "outputs", none));
 		
-		SagaProcess slopeproc = fact.create(new NameImpl("saga","slopeaspectcurvature"));
-		pg.addProcess(slopeproc);
-		GridCoverage2D slope = (GridCoverage2D) slopeproc.execute(
-				new KVP("elevation", dem),
-				progress).get("slope");
+		Step slope = chain.add(fact.create(new NameImpl("saga","slopeaspectcurvature")),
+				new KVP("elevation", dem, "outputs", none));
 		
-		SagaProcess lsfactorproc = fact.create(new NameImpl("saga","lsfactor"));
-		pg.addProcess(lsfactorproc);
-		GridCoverage2D lsfactor = (GridCoverage2D) lsfactorproc.execute(
-				new KVP("slope", slope, "area", carea, 
-						"conv", Integer.valueOf(1)),
-				progress).get("ls");
+		Step lsfactor = chain.add(fact.create(new NameImpl("saga","lsfactor")),
+				new KVP("slope", slope.getOutput("slope"), "area", carea.getOutput("carea"), 
+						"conv", Integer.valueOf(1), "outputs", none));
 		
-		SagaProcess statsproc = fact.create(new NameImpl("saga","gridstatisticsforpolygons"));
-		pg.addProcess(statsproc);
-		FeatureCollection extendedVectorBasins = (FeatureCollection) statsproc.execute(
-				new KVP("grids", new GridCoverage2D[]{lsfactor},  
-						"polygons", vectorBasins),
-				progress).get("result");
-		
-		pg.finish();
+		Step stats = chain.add(fact.create(new NameImpl("saga","gridstatisticsforpolygons")),
+				new KVP("grids", new Object[]{lsfactor.getOutput("ls")},  
+						"polygons", vectorBasins.getOutput("polygons"), "outputs", "result"));
+
+		try {
+			chain.execute(progress);
+		} finally {
+			pg.finish();
+		}
+		FeatureCollection extendedVectorBasins = (FeatureCollection) stats
+				.getResults().get("result");
 		
 		return extendedVectorBasins;
 		
@@ -0,0 +1,30 @@
+package org.geotools.process.external.grass;
+
+import org.geotools.process.external.AlgorithmCatalog;
+
+/**
+ * The GRASS algorithms described in grassdesc.txt. A single instance is shared
+ * by all the GrassProcessFactory instances.
+ *
+ */
+public class GrassCatalog extends AlgorithmCatalog<GrassProcess> {
+
+	private static GrassCatalog instance;
+
+	public GrassCatalog() {
+		super("grass", "/grassdesc.txt");
+	}
+
+	public static synchronized GrassCatalog getInstance() {
+		if (instance == null) {
+			instance = new GrassCatalog();
+		}
+		return instance;
+	}
+
+	@Override
+	protected GrassProcess createProcess(String desc) {
+		return new GrassProcess(desc);
+	}
+
+}
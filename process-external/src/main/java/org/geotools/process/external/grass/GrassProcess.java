@@ -3,9 +3,11 @@ package org.geotools.process.external.grass;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,8 +23,12 @@ import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.ProcessException;
 import org.geotools.process.external.ExternalProcess;
+import org.geotools.process.external.ExternalProcessExecutor;
+import org.geotools.process.external.FeatureResult;
+import org.geotools.process.external.FileSources;
 import org.geotools.process.external.GrassProcessGroup;
 import org.geotools.process.external.Parameters;
+import org.geotools.process.external.RasterResult;
 import org.geotools.process.external.Utils;
 import org.geotools.util.SimpleInternationalString;
 import org.opengis.util.ProgressListener;
@@ -35,6 +41,11 @@ public class GrassProcess extends ExternalProcess {
 
 	private String grassCommand;
 	private String gisdbase;
+	private GrassSession session;
+	// the files the outputs of the current execution are exported to, and
+	// their names in the mapset
+	private HashMap<String, String> outputFilenames = new HashMap<String, String>();
+	private HashMap<String, String> intermediateOutputFilenames = new HashMap<String, String>();
 
 	public GrassProcess(String desc) {
 
@@ -50,6 +61,8 @@ public class GrassProcess extends ExternalProcess {
 			if (line.startsWith("Parameter")) {
 				Parameter param = Parameters.getInputFromString(line);
 				inputs.put(param.key, param);
+			} else if (line.startsWith("TileSafe")) {
+				setTileSafe(line);
 			} else if (line.equals("")) {
 				break;
 			} else {
@@ -70,14 +83,37 @@ public class GrassProcess extends ExternalProcess {
 				new SimpleInternationalString("GRASS region cellsize"), false,
 				0, 1, 1.0, map);
 		inputs.put(param.key, param);
+		addResultParameters();
 
 	}
 
+	private GrassProcess(GrassProcess prototype) {
+		inputs = prototype.inputs;
+		outputs = prototype.outputs;
+		name = prototype.name;
+		description = prototype.description;
+		tileHalo = prototype.tileHalo;
+		grassCommand = prototype.grassCommand;
+	}
+
+	@Override
+	public GrassProcess newInstance() {
+		return new GrassProcess(this);
+	}
+
 	public Map<String, Object> _execute(Map<String, Object> params,
 			ProgressListener progress) throws ProcessException {
 
-		HashMap<String, String> outputFilenames = new HashMap<String, String>();
-		HashMap<String, String> intermediateOutputFilenames = new HashMap<String, String>();
+		return runSteps(params, progress);
+
+	}
+
+	@Override
+	protected List<String> prepareStep(Map<String, Object> params,
+			ProgressListener progress) throws ProcessException {
+
+		outputFilenames = new HashMap<String, String>();
+		intermediateOutputFilenames = new HashMap<String, String>();
 
 		if (Utils.isWindows()) {
 			String path = GrassUtils.grassPath();
@@ -97,17 +133,31 @@ public class GrassProcess extends ExternalProcess {
 		}
 
 		try {
+			gisdbase = null;
+			session = null;
 			if (appProcessGroup != null) {
-				gisdbase = ((GrassProcessGroup)appProcessGroup).getGisdbase();
-				if (gisdbase == null){
-					gisdbase = GrassUtils.createMapset(latlon);
-					((GrassProcessGroup)appProcessGroup).setGisdbase(gisdbase);
+				GrassProcessGroup group = (GrassProcessGroup) appProcessGroup;
+				// processes in the group might be run from several threads
+				synchronized (group) {
+					gisdbase = group.getGisdbase();
+					session = group.getSession();
+					if (gisdbase == null){
+						session = GrassSessionPool.getInstance().acquire(
+								latlon, progress, timeout);
+						gisdbase = session != null ? session.getGisdbase()
+								: GrassUtils.createMapset(latlon);
+						group.setGisdbase(gisdbase);
+						group.setSession(session);
+					}
 				}
 			}
 			else{
-				gisdbase = GrassUtils.createMapset(latlon);
+				// a warm session saves starting GRASS and creating a mapset
+				session = GrassSessionPool.getInstance().acquire(latlon,
+						progress, timeout);
+				gisdbase = session != null ? session.getGisdbase()
+						: GrassUtils.createMapset(latlon);
 			}
-				
 		} catch (IOException e) {
 			throw new ProcessException("Error creating GRASS mapset:\n"
 					+ e.getMessage());
@@ -138,12 +188,15 @@ public class GrassProcess extends ExternalProcess {
 				if (param.getType().isArray()) {
 					Object[] arr = (Object[]) value;
 					for (int i = 0; i < arr.length; i++) {
+						if (addGroupLayer(arr[i])) {
+							continue;
+						}
 						String exportCommand = exportRasterLayer((GridCoverage2D) arr[i]); 
 						if (exportCommand != null){
 							commands.add(exportCommand);
 						}
 					}
-				} else {
+				} else if (!addGroupLayer(value)) {
 					String exportCommand = exportRasterLayer((GridCoverage2D) value); 
 					if (exportCommand != null){
 						commands.add(exportCommand);
@@ -155,12 +208,15 @@ public class GrassProcess extends ExternalProcess {
 				if (param.getType().isArray()) {
 					Object[] arr = (Object[]) value;
 					for (int i = 0; i < arr.length; i++) {
+						if (addGroupLayer(arr[i])) {
+							continue;
+						}
 						String exportCommand = exportVectorLayer((FeatureCollection) arr[i]); 
 						if (exportCommand != null){
 							commands.add(exportCommand);
 						}						
 					}
-				} else {
+				} else if (!addGroupLayer(value)) {
 					String exportCommand = exportVectorLayer((FeatureCollection) value); 
 					if (exportCommand != null){
 						commands.add(exportCommand);
@@ -296,13 +352,19 @@ public class GrassProcess extends ExternalProcess {
 		command += " --overwrite";
 		commands.add(command);
 
-		// 4:Export resulting layers to a format that geotools can read
+		// 4:Export resulting layers to a format that geotools can read.
+		// Outputs that have not been requested are not exported. Exporting
+		// cannot be deferred for lazy results, since the mapset is not kept
+		// after the execution
 
 		set = outputs.keySet();
 		iter = set.iterator();
 		while (iter.hasNext()) {
 			String key = iter.next();
 			Parameter param = outputs.get(key);
+			if (!isRequested(key)) {
+				continue;
+			}
 			if (param.getType().equals(GridCoverage2D.class)) {
 				String filename = outputFilenames.get(key);
 				commands.add("g.region rast=" + param.getName());
@@ -324,20 +386,63 @@ public class GrassProcess extends ExternalProcess {
 			}
 		}
 
+		return commands;
+
+	}
+
+	@Override
+	protected String[] getOutputLayerFilenames(String output) {
+		String name = intermediateOutputFilenames.get(output);
+		return name != null ? new String[] { name } : null;
+	}
+
+	@Override
+	protected Collection<String> getResultFilenames() {
+		return outputFilenames.values();
+	}
+
+	@Override
+	protected void runBatch(List<String> commands, ProgressListener progress)
+			throws ProcessException {
+
 		// 5. Run GRASS
 
-		GrassUtils.executeGrass(commands, gisdbase, progress);
+		ArrayList<String> list = new ArrayList<String>(commands);
+		if (session != null) {
+			runInSession(list, progress);
+		} else {
+			GrassUtils.executeGrass(list, gisdbase, progress, timeout, metrics);
+		}
+
+	}
+
+	@Override
+	protected Map<String, Object> readStepResults() throws ProcessException {
 
 		// 6. Open resulting layers and return results map
 
 		HashMap<String, Object> results = new HashMap<String, Object>();
-		set = outputs.keySet();
-		iter = set.iterator();
+		Iterator<String> iter = outputs.keySet().iterator();
 		while (iter.hasNext()) {
 			String key = iter.next();
 			Parameter param = outputs.get(key);
 			String filename = outputFilenames.get(key);
-			if (param.getType().equals(GridCoverage2D.class)) {
+			if (!isRequested(key)) {
+				continue;
+			}
+			if (lazyResults && param.getType().equals(GridCoverage2D.class)) {
+				RasterResult result = new RasterResult(filename);
+				if (appProcessGroup != null){
+					result.setProcessGroup(appProcessGroup, new String[]{intermediateOutputFilenames.get(key)});
+				}
+				results.put(key, result);
+			} else if (lazyResults && param.getType().equals(FeatureCollection.class)) {
+				FeatureResult result = new FeatureResult(filename);
+				if (appProcessGroup != null){
+					result.setProcessGroup(appProcessGroup, new String[]{intermediateOutputFilenames.get(key)});
+				}
+				results.put(key, result);
+			} else if (param.getType().equals(GridCoverage2D.class)) {
 				GeoTiffReader reader;
 				try {
 					reader = new GeoTiffReader(new File(filename), new Hints(
@@ -345,6 +450,7 @@ public class GrassProcess extends ExternalProcess {
 							Boolean.TRUE));
 				if (reader != null) {
 					GridCoverage2D gc = (GridCoverage2D) reader.read(null);
+					addBytesRead(filename);
 					results.put(key, gc);
 					if (appProcessGroup != null){
 						appProcessGroup.addLayerFilename(gc, new String[]{intermediateOutputFilenames.get(key)});
@@ -366,6 +472,7 @@ public class GrassProcess extends ExternalProcess {
 					String typeName = dataStore.getTypeNames()[0];
 					FeatureSource source = dataStore.getFeatureSource(typeName);
 					FeatureCollection fc = source.getFeatures();
+					addBytesRead(filename);
 					results.put(key, fc);
 					if (appProcessGroup != null){
 						appProcessGroup.addLayerFilename(fc, new String[]{intermediateOutputFilenames.get(key)});
@@ -383,16 +490,52 @@ public class GrassProcess extends ExternalProcess {
 
 	}
 
+	private void runInSession(ArrayList<String> commands,
+			ProgressListener progress) {
+		// the session process is not started by the executor, but it still
+		// takes one of its slots while running
+		ExternalProcessExecutor executor = ExternalProcessExecutor.getInstance();
+		executor.acquire(progress, timeout);
+		int status = -1;
+		try {
+			status = session.run(commands, progress, timeout, metrics);
+		} finally {
+			executor.release();
+			session.commitResidentLayers(status == 0);
+		}
+		if (status != 0) {
+			throw new ProcessException("GRASS exited with code " + status
+					+ ":\n" + metrics.getOutputText());
+		}
+	}
+
+	// Returns the key of a layer among the resident layers of the session, or
+	// null if it should not be kept there, as tiles are not
+	private String getResidentLayerKey(Object layer, File sourceFile) {
+		if (session == null || !useExportCache) {
+			return null;
+		}
+		if (sourceFile != null) {
+			return "file:" + sourceFile.getPath() + ":"
+					+ sourceFile.lastModified();
+		}
+		return getFingerprint(layer);
+	}
+
 	private String exportVectorLayer(FeatureCollection fc) {
-		if (appProcessGroup != null) {
-			String[] filenames = appProcessGroup.getLayerFilenames(fc);
-			if (filenames != null) {
-				exportedLayers.put(fc, filenames);
-				return null;
+		String key = getResidentLayerKey(fc, FileSources.getSourceFile(fc));
+		if (key != null && session.getResidentLayer(key) != null) {
+			String[] filenames = new String[] { session.getResidentLayer(key) };
+			metrics.addCacheHit();
+			exportedLayers.put(fc, filenames);
+			if (appProcessGroup != null){
+				appProcessGroup.addLayerFilename(fc, filenames);
 			}
+			return null;
 		}
 		String intermediateFilename = saveVectorLayer(fc);
-		String destFilename = getTempFilename();
+		String destFilename = key != null ? session.addResidentLayer(key, false)
+				: getTempFilename();
 		exportedLayers.put(fc, new String[] { destFilename });
 		if (appProcessGroup != null){
 			appProcessGroup.addLayerFilename(fc, new String[] { destFilename });
@@ -410,20 +553,27 @@ public class GrassProcess extends ExternalProcess {
 	}
 
 	private String exportRasterLayer(GridCoverage2D gc) {
-		if (appProcessGroup != null) {
-			String[] filenames = appProcessGroup.getLayerFilenames(gc);
-			if (filenames != null) {
-				exportedLayers.put(gc, filenames);
-				return null;
+		File sourceFile = FileSources.getSourceFile(gc);
+		String key = getResidentLayerKey(gc, sourceFile);
+		if (key != null && session.getResidentLayer(key) != null) {
+			String[] filenames = new String[] { session.getResidentLayer(key) };
+			metrics.addCacheHit();
+			exportedLayers.put(gc, filenames);
+			if (appProcessGroup != null){
+				appProcessGroup.addLayerFilename(gc, filenames);
 			}
+			return null;
 		}
 		String intermediateFilename = saveRasterLayer(gc);
-		String destFilename = getTempFilename();
+		String destFilename = key != null ? session.addResidentLayer(key, true)
+				: getTempFilename();
 		exportedLayers.put(gc, new String[] { destFilename });
 		if (appProcessGroup != null){
 			appProcessGroup.addLayerFilename(gc, new String[] { destFilename });
 		}
-		String command = "r.in.gdal";
+		// file-based layers are linked, not copied into the mapset
+		String command = sourceFile != null ? "r.external"
+				: "r.in.gdal";
 		command += " input=\"" + intermediateFilename + "\"";
 		command += " band=1";
 		command += " out=" + destFilename;
@@ -444,9 +594,19 @@ public class GrassProcess extends ExternalProcess {
 		if (isAppSpecificCleared) {
 			return;
 		}
-		// we just delete the mapset
-		deleteDir(new File(gisdbase));
+		if (session != null) {
+			// temporary layers are removed by the session before its next
+			// job. A session shared by a group is released by the group
+			if (appProcessGroup == null) {
+				GrassSessionPool.getInstance().release(session);
+			}
+			session = null;
+		} else if (gisdbase != null) {
+			// we just delete the mapset
+			deleteDir(new File(gisdbase));
+		}
 		isAppSpecificCleared = true;
+		releaseCacheEntries();
 
 	}
 
@@ -1,16 +1,10 @@
 package org.geotools.process.external.grass;
 
 import java.awt.RenderingHints.Key;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 import org.geotools.data.Parameter;
-import org.geotools.feature.NameImpl;
 import org.geotools.process.ProcessFactory;
 import org.geotools.util.SimpleInternationalString;
 import org.opengis.feature.type.Name;
@@ -19,35 +13,12 @@ import org.opengis.util.InternationalString;
 public class GrassProcessFactory implements ProcessFactory {
 
 	private static final String GRASS_VERSION = "6.4.2";
-	HashMap<Name, GrassProcess> processes;
+	private final GrassCatalog catalog;
 
+	// Algorithms are not parsed when the factory is created, but when they
+	// are first used. See AlgorithmCatalog
 	public GrassProcessFactory() {
-		URL url = this.getClass().getResource("/grassdesc.txt");
-		File file = new File(url.getFile());
-		loadProcesses(file);
-	}
-
-	private void loadProcesses(File descFile) {
-		processes = new HashMap<Name, GrassProcess>();
-		try {
-			BufferedReader br = new BufferedReader(new FileReader(descFile));
-			String line;
-			String s;
-			s = "";
-			while ((line = br.readLine()) != null) {
-				if (!line.startsWith("----")) {
-					s += line + "\n";
-				} else {
-					GrassProcess proc = new GrassProcess(s);
-					processes.put(new NameImpl("grass", proc.getName()), proc);
-					s = "";
-				}
-			}
-			br.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
+		catalog = GrassCatalog.getInstance();
 	}
 
 	@Override
@@ -62,28 +33,33 @@ public class GrassProcessFactory implements ProcessFactory {
 
 	@Override
 	public GrassProcess create(Name name) {
-		GrassProcess process = getProcess(name);
-		return process;
+		// each call gets its own instance, so concurrent executions of the
+		// same algorithm do not share their temporary files and state
+		return getProcess(name).newInstance();
 	}
 
 	public GrassProcess getProcess(Name name) {
-		if (!processes.containsKey(name)) {
+		GrassProcess process = catalog.getProcess(name);
+		if (process == null) {
 			throw new IllegalArgumentException("Unknown process: '" + name
 					+ "'");
-		} else {
-			return processes.get(name);
 		}
+		return process;
 	}
 
 	@Override
 	public InternationalString getDescription(Name name) {
-		GrassProcess process = getProcess(name);
-		return new SimpleInternationalString(process.getDescription());
+		String description = catalog.getDescription(name);
+		if (description == null) {
+			throw new IllegalArgumentException("Unknown process: '" + name
+					+ "'");
+		}
+		return new SimpleInternationalString(description);
 	}
 
 	@Override
 	public Set<Name> getNames() {
-		return processes.keySet();
+		return catalog.getNames();
 	}
 
 	@Override
@@ -106,8 +82,11 @@ public class GrassProcessFactory implements ProcessFactory {
 
 	@Override
 	public InternationalString getTitle(Name name) {
-		GrassProcess process = getProcess(name);
-		return new SimpleInternationalString(process.getName());
+		if (!catalog.contains(name)) {
+			throw new IllegalArgumentException("Unknown process: '" + name
+					+ "'");
+		}
+		return new SimpleInternationalString(name.getLocalPart());
 	}
 
 	@Override
@@ -0,0 +1,468 @@
+package org.geotools.process.external.grass;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics;
+import org.geotools.process.external.Utils;
+import org.geotools.util.logging.Logging;
+import org.opengis.util.ProgressListener;
+
+/**
+ * A long-lived GRASS process, with its own mapset, that runs the commands it
+ * receives through a pipe. This avoids paying the GRASS startup and the mapset
+ * creation for each execution.
+ *
+ * Layers imported into the session can be kept as resident layers, so later
+ * jobs using the same data do not have to import it again. Resident layers
+ * are named with the "cache" prefix. All other layers are considered
+ * temporary, and are removed before the next job is run.
+ *
+ * A session should be used by a single job at a time, as handed out by the
+ * GrassSessionPool. Jobs sharing a session (as those in a GrassProcessGroup)
+ * are run one after another.
+ *
+ */
+public class GrassSession {
+
+	// prefix of the names of layers that are kept between jobs
+	public static final String RESIDENT_PREFIX = "cache";
+
+	// removes all temporary layers created by a job
+	private static final String CLEANUP_COMMAND = "g.mremove -f rast=\"tmp*\" vect=\"tmp*\"";
+
+	// the shell variable with the exit value of the first command of a job
+	// that failed
+	private static final String STATUS_VARIABLE = "GT_STATUS";
+
+	private static final long POLL_INTERVAL = 50;
+
+	private static final Logger LOGGER = Logging
+			.getLogger("org.geotools.process.external.grass");
+
+	private static final AtomicInteger nSessions = new AtomicInteger();
+
+	private final String gisdbase;
+	private final boolean latlon;
+	private final int maxResidentLayers;
+	private final String marker;
+	private final Process process;
+	private final BufferedWriter input;
+	private final BlockingQueue<String> output = new LinkedBlockingQueue<String>();
+	private final ErrorReader errorReader;
+
+	// resident layers, mapping layer fingerprints to "rast:name" or
+	// "vect:name" in access order, so the first one is the least recently
+	// used
+	private final LinkedHashMap<String, String> residentLayers = new LinkedHashMap<String, String>(
+			16, 0.75f, true);
+
+	// layers being imported by the current job, that will become resident if
+	// it succeeds
+	private final LinkedHashMap<String, String> pendingLayers = new LinkedHashMap<String, String>();
+
+	// commands to run before the next job
+	private final List<String> pendingCleanup = new ArrayList<String>();
+
+	private boolean alive = true;
+	private int nResidentLayers = 0;
+
+	// the CPU time used so far by the commands run in the session, as
+	// reported by the "times" builtin of its shell
+	private long childCpuTime = 0;
+
+	private GrassSession(String gisdbase, boolean latlon,
+			int maxResidentLayers) throws IOException {
+		this.gisdbase = gisdbase;
+		this.latlon = latlon;
+		this.maxResidentLayers = maxResidentLayers;
+		marker = "__GT_GRASS_SESSION_" + nSessions.incrementAndGet() + "__";
+
+		// the batch job just runs a shell reading commands from the standard
+		// input of GRASS
+		String batchJob = gisdbase + File.separator + "session.sh";
+		BufferedWriter out = new BufferedWriter(new FileWriter(batchJob));
+		out.write("#!/bin/sh\n");
+		out.write("exec /bin/sh -s\n");
+		out.close();
+		new File(batchJob).setExecutable(true);
+
+		ProcessBuilder pb = new ProcessBuilder("grass64", gisdbase
+				+ File.separator + "temp_location" + File.separator + "user");
+		Map<String, String> env = pb.environment();
+		env.put("GISRC", gisdbase + File.separator + "gisrc");
+		env.put("GRASS_MESSAGE_FORMAT", "gui");
+		env.put("GRASS_BATCH_JOB", batchJob);
+		process = pb.start();
+		input = new BufferedWriter(new OutputStreamWriter(
+				process.getOutputStream()));
+		errorReader = new ErrorReader(process.getErrorStream());
+		errorReader.start();
+		new OutputReader(process.getInputStream()).start();
+	}
+
+	/**
+	 * Starts a new session, in a new mapset.
+	 *
+	 * @param latlon
+	 *            whether the session should use a lat/lon location
+	 * @param maxResidentLayers
+	 *            the maximum number of layers to keep between jobs
+	 */
+	public static GrassSession start(boolean latlon, int maxResidentLayers)
+			throws IOException {
+		if (Utils.isWindows()) {
+			throw new IOException("GRASS sessions are not supported on Windows");
+		}
+		String gisdbase = GrassUtils.createMapset(latlon);
+		try {
+			return new GrassSession(gisdbase, latlon, maxResidentLayers);
+		} catch (IOException e) {
+			deleteDir(new File(gisdbase));
+			throw e;
+		}
+	}
+
+	public String getGisdbase() {
+		return gisdbase;
+	}
+
+	public boolean isLatLon() {
+		return latlon;
+	}
+
+	public synchronized boolean isAlive() {
+		if (alive) {
+			try {
+				process.exitValue();
+				alive = false;
+			} catch (IllegalThreadStateException e) {
+				// still running
+			}
+		}
+		return alive;
+	}
+
+	/**
+	 * Runs a set of GRASS commands in this session, stopping at the first one
+	 * that fails. Temporary layers left by the previous user of the session
+	 * are removed first.
+	 *
+	 * @param commands
+	 *            a list with GRASS commands
+	 * @param progress
+	 *            a ProgressListener to track progress and cancel the execution.
+	 *            If it is canceled, the session is killed.
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds. 0 means no timeout.
+	 *            If it is exceeded, the session is killed.
+	 * @return the exit value of the first command that failed, or 0 if all of
+	 *         them succeeded
+	 */
+	public synchronized int run(List<String> commands,
+			ProgressListener progress, long timeout) throws ProcessException {
+		return run(commands, progress, timeout, null);
+	}
+
+	/**
+	 * Runs a set of GRASS commands in this session, recording their exit
+	 * value, CPU time and output in the metrics of an execution, which can be
+	 * null
+	 */
+	public synchronized int run(List<String> commands,
+			ProgressListener progress, long timeout, ExecutionMetrics metrics)
+			throws ProcessException {
+		if (metrics == null) {
+			metrics = new ExecutionMetrics("grass");
+		}
+		if (!isAlive()) {
+			throw new ProcessException("GRASS session is not running");
+		}
+		List<String> job = new ArrayList<String>(pendingCleanup);
+		pendingCleanup.clear();
+		int nCleanupCommands = job.size();
+		job.addAll(commands);
+
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+				: Long.MAX_VALUE;
+		errorReader.setProgress(progress);
+		errorReader.setMetrics(metrics);
+		String timesMarker = marker + "TIMES";
+		try {
+			// commands should not read from our pipe. Once one of them
+			// fails, the rest are skipped, reporting its exit value
+			for (int i = 0; i < job.size(); i++) {
+				if (i < nCleanupCommands) {
+					input.write(job.get(i) + " < /dev/null\n");
+					input.write("echo \"" + marker + " $?\"\n");
+					continue;
+				}
+				if (i == nCleanupCommands) {
+					input.write(STATUS_VARIABLE + "=0\n");
+				}
+				input.write("if [ $" + STATUS_VARIABLE + " -eq 0 ]; then\n");
+				input.write(job.get(i) + " < /dev/null\n");
+				input.write(STATUS_VARIABLE + "=$?\n");
+				input.write("fi\n");
+				input.write("echo \"" + marker + " $" + STATUS_VARIABLE
+						+ "\"\n");
+			}
+			// the total CPU time of the commands run so far
+			input.write("times\n");
+			input.write("echo \"" + timesMarker + "\"\n");
+			input.flush();
+
+			int status = 0;
+			int finished = 0;
+			boolean timesRead = false;
+			long cpuTime = -1;
+			while (finished < job.size() || !timesRead) {
+				String line = output.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (line == null) {
+					if (progress != null && progress.isCanceled()) {
+						kill();
+						throw new ProcessException("GRASS execution canceled");
+					}
+					if (System.currentTimeMillis() > deadline) {
+						kill();
+						throw new ProcessException("GRASS execution timed out after "
+								+ timeout + " ms");
+					}
+					if (!isAlive() && output.isEmpty()) {
+						throw new ProcessException("GRASS session finished unexpectedly");
+					}
+					continue;
+				}
+				if (line.equals(timesMarker)) {
+					timesRead = true;
+					if (cpuTime >= childCpuTime) {
+						metrics.addChildCpuTime(cpuTime - childCpuTime);
+						childCpuTime = cpuTime;
+					}
+				} else if (line.startsWith(marker)) {
+					finished++;
+					// failures when cleaning up are not reported
+					if (status == 0 && finished > nCleanupCommands) {
+						try {
+							status = Integer.parseInt(line.substring(
+									marker.length()).trim());
+						} catch (NumberFormatException e) {
+							// we ignore this
+						}
+					}
+				} else if (finished == job.size()
+						&& ExecutionMetrics.parseTimes(line) >= 0) {
+					// the second line is the one of the child processes
+					cpuTime = ExecutionMetrics.parseTimes(line);
+				} else if (line.trim().length() > 0) {
+					metrics.addOutputLine(line);
+					LOGGER.fine(line);
+				}
+			}
+			metrics.addExitCode(status);
+			return status;
+		} catch (IOException e) {
+			kill();
+			throw new ProcessException("Error running GRASS session:\n"
+					+ e.getMessage());
+		} catch (InterruptedException e) {
+			kill();
+			Thread.currentThread().interrupt();
+			throw new ProcessException("GRASS execution interrupted");
+		} finally {
+			errorReader.setProgress(null);
+			errorReader.setMetrics(null);
+		}
+	}
+
+	/**
+	 * Marks the end of a job. Its temporary layers will be removed before the
+	 * next one is run
+	 */
+	public synchronized void reset() {
+		if (!pendingCleanup.contains(CLEANUP_COMMAND)) {
+			pendingCleanup.add(CLEANUP_COMMAND);
+		}
+	}
+
+	/**
+	 * Returns the name of a resident layer with the given fingerprint, or null
+	 * if there is none
+	 */
+	public synchronized String getResidentLayer(String key) {
+		String layer = residentLayers.get(key);
+		if (layer == null) {
+			return null;
+		}
+		return layer.substring(layer.indexOf(":") + 1);
+	}
+
+	/**
+	 * Returns the name to import a layer with, so it is kept for later jobs
+	 * if the current one succeeds.
+	 *
+	 * @param key
+	 *            the fingerprint of the layer
+	 * @param raster
+	 *            true if it is a raster layer, false if it is a vector one
+	 */
+	public synchronized String addResidentLayer(String key, boolean raster) {
+		String layer = pendingLayers.get(key);
+		if (layer == null) {
+			layer = (raster ? "rast:" : "vect:") + RESIDENT_PREFIX
+					+ Integer.toString(nResidentLayers++);
+			pendingLayers.put(key, layer);
+		}
+		return layer.substring(layer.indexOf(":") + 1);
+	}
+
+	/**
+	 * Makes the layers imported by the current job resident, or removes them
+	 * if it failed. If there are too many resident layers, the least recently
+	 * used ones are removed before the next job.
+	 */
+	public synchronized void commitResidentLayers(boolean success) {
+		if (success) {
+			residentLayers.putAll(pendingLayers);
+		} else {
+			for (String layer : pendingLayers.values()) {
+				pendingCleanup.add(getRemoveCommand(layer));
+			}
+		}
+		pendingLayers.clear();
+		Iterator<String> iter = residentLayers.values().iterator();
+		while (residentLayers.size() > maxResidentLayers && iter.hasNext()) {
+			String layer = iter.next();
+			iter.remove();
+			pendingCleanup.add(getRemoveCommand(layer));
+		}
+	}
+
+	private String getRemoveCommand(String layer) {
+		String type = layer.substring(0, layer.indexOf(":"));
+		return "g.remove -f " + type + "="
+				+ layer.substring(layer.indexOf(":") + 1);
+	}
+
+	/**
+	 * Stops the session and deletes its mapset
+	 */
+	public void close() {
+		if (isAlive()) {
+			try {
+				input.write("exit\n");
+				input.close();
+			} catch (IOException e) {
+				// we kill it anyway
+			}
+		}
+		kill();
+	}
+
+	private synchronized void kill() {
+		process.destroy();
+		alive = false;
+		deleteDir(new File(gisdbase));
+	}
+
+	private static boolean deleteDir(File dir) {
+		if (dir.isDirectory()) {
+			String[] children = dir.list();
+			for (int i = 0; i < children.length; i++) {
+				deleteDir(new File(dir, children[i]));
+			}
+		}
+		return dir.delete();
+	}
+
+	private class OutputReader extends Thread {
+
+		private final InputStream is;
+
+		OutputReader(InputStream is) {
+			this.is = is;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				BufferedReader br = new BufferedReader(new InputStreamReader(is));
+				String line;
+				while ((line = br.readLine()) != null) {
+					output.add(line);
+				}
+			} catch (IOException e) {
+				// the session has been closed
+			}
+		}
+	}
+
+	private static class ErrorReader extends Thread {
+
+		private final InputStream is;
+		private volatile ProgressListener progress;
+		private volatile ExecutionMetrics metrics;
+
+		ErrorReader(InputStream is) {
+			this.is = is;
+			setDaemon(true);
+		}
+
+		void setProgress(ProgressListener progress) {
+			this.progress = progress;
+		}
+
+		void setMetrics(ExecutionMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void run() {
+			try {
+				BufferedReader br = new BufferedReader(new InputStreamReader(is));
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.contains("GRASS_INFO_PERCENT")) {
+						try {
+							int percentage = Integer.parseInt(line.substring(
+									line.indexOf(":") + 1).trim());
+							ProgressListener listener = progress;
+							if (listener != null) {
+								listener.progress(percentage / 100f);
+							}
+						} catch (NumberFormatException e) {
+							// we ignore this
+						}
+					} else if (line.trim().length() > 0) {
+						ExecutionMetrics executionMetrics = metrics;
+						if (executionMetrics != null) {
+							executionMetrics.addOutputLine(line);
+						}
+						LOGGER.fine(line);
+					}
+				}
+			} catch (IOException e) {
+				// the session has been closed
+			}
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package org.geotools.process.external.grass;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExternalProcessExecutor;
+import org.geotools.process.external.Utils;
+import org.opengis.util.ProgressListener;
+
+/**
+ * A pool of warm GRASS sessions, split into lat/lon and projected ones.
+ *
+ * The maximum number of sessions can be set with the
+ * org.geotools.process.external.grass.sessions system property. It defaults
+ * to the number of available processors. A value of 0 disables sessions, so
+ * GRASS is started for each execution. The number of layers each session keeps
+ * imported between jobs can be set with the
+ * org.geotools.process.external.grass.residentLayers system property.
+ *
+ * Sessions are not supported on Windows.
+ *
+ */
+public class GrassSessionPool {
+
+	public static final String SESSIONS_PROPERTY = "org.geotools.process.external.grass.sessions";
+	public static final String RESIDENT_LAYERS_PROPERTY = "org.geotools.process.external.grass.residentLayers";
+
+	private static final int DEFAULT_RESIDENT_LAYERS = 32;
+	private static final long POLL_INTERVAL = 50;
+
+	private static GrassSessionPool instance;
+
+	private final int maxSessions;
+	private final int maxResidentLayers;
+	private final LinkedList<GrassSession> idleLatLon = new LinkedList<GrassSession>();
+	private final LinkedList<GrassSession> idleProjected = new LinkedList<GrassSession>();
+	private final List<GrassSession> sessions = new ArrayList<GrassSession>();
+
+	public GrassSessionPool(int maxSessions, int maxResidentLayers) {
+		this.maxSessions = maxSessions;
+		this.maxResidentLayers = maxResidentLayers;
+	}
+
+	public static synchronized GrassSessionPool getInstance() {
+		if (instance == null) {
+			int sessions = getIntProperty(SESSIONS_PROPERTY, Runtime
+					.getRuntime().availableProcessors());
+			int layers = getIntProperty(RESIDENT_LAYERS_PROPERTY,
+					DEFAULT_RESIDENT_LAYERS);
+			instance = new GrassSessionPool(Utils.isWindows() ? 0 : sessions,
+					layers);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					closeInstance();
+				}
+			});
+		}
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared pool. Sessions in the previous one are closed once
+	 * they are released
+	 */
+	public static synchronized void setInstance(GrassSessionPool pool) {
+		if (instance != null && instance != pool) {
+			instance.close();
+		}
+		instance = pool;
+	}
+
+	private static synchronized void closeInstance() {
+		if (instance != null) {
+			instance.close();
+		}
+	}
+
+	private static int getIntProperty(String name, int defaultValue) {
+		String prop = System.getProperty(name);
+		if (prop != null) {
+			try {
+				return Math.max(0, Integer.parseInt(prop.trim()));
+			} catch (NumberFormatException e) {
+				// we use the default value
+			}
+		}
+		return defaultValue;
+	}
+
+	public boolean isEnabled() {
+		return maxSessions > 0;
+	}
+
+	/**
+	 * Takes an idle session, starting a new one if needed. If all sessions are
+	 * busy, it waits for one to be released, up to the default timeout of
+	 * external processes.
+	 *
+	 * @param latlon
+	 *            whether the session should use a lat/lon location
+	 * @param progress
+	 *            a ProgressListener. If it is canceled, waiting is aborted
+	 * @return a session, or null if sessions are disabled or GRASS could not be
+	 *         started
+	 */
+	public GrassSession acquire(boolean latlon, ProgressListener progress) {
+		return acquire(latlon, progress, ExternalProcessExecutor
+				.getDefaultTimeout());
+	}
+
+	/**
+	 * Takes an idle session, starting a new one if needed. If all sessions are
+	 * busy, it waits for one to be released.
+	 *
+	 * @param latlon
+	 *            whether the session should use a lat/lon location
+	 * @param progress
+	 *            a ProgressListener. If it is canceled, waiting is aborted
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds. 0 means no timeout
+	 * @return a session, or null if sessions are disabled or GRASS could not be
+	 *         started
+	 */
+	public GrassSession acquire(boolean latlon, ProgressListener progress,
+			long timeout) throws ProcessException {
+		if (!isEnabled()) {
+			return null;
+		}
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout
+				: Long.MAX_VALUE;
+		synchronized (this) {
+			LinkedList<GrassSession> idle = latlon ? idleLatLon : idleProjected;
+			while (true) {
+				while (!idle.isEmpty()) {
+					GrassSession session = idle.removeFirst();
+					if (session.isAlive()) {
+						return session;
+					}
+					sessions.remove(session);
+					session.close();
+				}
+				if (sessions.size() < maxSessions) {
+					break;
+				}
+				// close an idle session of the other kind, if any, to make
+				// room for a new one
+				LinkedList<GrassSession> other = latlon ? idleProjected
+						: idleLatLon;
+				if (!other.isEmpty()) {
+					GrassSession session = other.removeFirst();
+					sessions.remove(session);
+					session.close();
+					break;
+				}
+				if (progress != null && progress.isCanceled()) {
+					throw new ProcessException("GRASS execution canceled");
+				}
+				if (System.currentTimeMillis() > deadline) {
+					throw new ProcessException(
+							"Timed out waiting for a GRASS session after "
+									+ timeout + " ms");
+				}
+				try {
+					wait(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ProcessException("GRASS execution interrupted");
+				}
+			}
+			// we reserve the place for the new session
+			sessions.add(null);
+		}
+		GrassSession session = null;
+		try {
+			session = GrassSession.start(latlon, maxResidentLayers);
+			return session;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			synchronized (this) {
+				sessions.remove(null);
+				if (session != null) {
+					sessions.add(session);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns a session to the pool. Sessions that are no longer running are
+	 * discarded
+	 */
+	public synchronized void release(GrassSession session) {
+		if (!sessions.contains(session)) {
+			// it belongs to a closed pool
+			session.close();
+			return;
+		}
+		if (session.isAlive()) {
+			session.reset();
+			if (session.isLatLon()) {
+				idleLatLon.addFirst(session);
+			} else {
+				idleProjected.addFirst(session);
+			}
+		} else {
+			sessions.remove(session);
+			session.close();
+		}
+		notifyAll();
+	}
+
+	// the number of running sessions
+	public synchronized int getSessionCount() {
+		int count = 0;
+		for (GrassSession session : sessions) {
+			if (session != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Closes all idle sessions. Busy ones are closed when they are released
+	 */
+	public synchronized void close() {
+		for (GrassSession session : idleLatLon) {
+			session.close();
+		}
+		for (GrassSession session : idleProjected) {
+			session.close();
+		}
+		sessions.removeAll(idleLatLon);
+		sessions.removeAll(idleProjected);
+		idleLatLon.clear();
+		idleProjected.clear();
+		// busy sessions will not be found when released, so they are closed
+		sessions.clear();
+	}
+
+}
@@ -10,16 +10,25 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics;
+import org.geotools.process.external.ExternalProcessExecutor;
 import org.geotools.process.external.Utils;
+import org.geotools.util.logging.Logging;
 import org.opengis.util.ProgressListener;
 
 public class GrassUtils {
 
-	private static String grassScriptFilename;
-	private static String grassBatchJobFilename;
-	private static String gisrcFilename;
+	// printed by batch jobs before the output of the "times" builtin and
+	// before their exit value
+	static final String TIMES_MARKER = "__GT_TIMES__";
+	static final String EXIT_MARKER = "__GT_EXIT__";
+
+	// the maximum time in milliseconds to wait for the output of GRASS once
+	// it has finished
+	private static final long GOBBLER_TIMEOUT = 5000;
 
 	/**
 	 * Creates a temporary location and mapset(s) for GRASS data processing. A
@@ -182,79 +191,143 @@ public class GrassUtils {
 	 *            the GRASS gisdbase folder to base this execution on. It should
 	 *            already exist
 	 * @param progress
-	 *            a ProgressListener to track progress (currently not used)
+	 *            a ProgressListener to track progress and cancel the execution
 	 */
 	public static void executeGrass(ArrayList<String> commands,
 			String gisdbase, ProgressListener progress) {
-		String command = null;
+		executeGrass(commands, gisdbase, progress,
+				ExternalProcessExecutor.getDefaultTimeout());
+	}
+
+	/**
+	 * Runs a set of GRASS commands. The GRASS process is run through the
+	 * shared ExternalProcessExecutor, so it might have to wait for other
+	 * external processes to finish.
+	 * 
+	 * @param commands
+	 *            a list with GRASS commands
+	 * @param gisdbase
+	 *            the GRASS gisdbase folder to base this execution on. It should
+	 *            already exist
+	 * @param progress
+	 *            a ProgressListener to track progress and cancel the execution
+	 * @param timeout
+	 *            the maximum time to wait for GRASS, in milliseconds. 0 means
+	 *            no timeout
+	 */
+	public static void executeGrass(ArrayList<String> commands,
+			String gisdbase, ProgressListener progress, long timeout) {
+		executeGrass(commands, gisdbase, progress, timeout, null);
+	}
+
+	/**
+	 * Runs a set of GRASS commands, stopping at the first one that fails. The
+	 * GRASS process is run through the shared ExternalProcessExecutor, so it
+	 * might have to wait for other external processes to finish.
+	 * 
+	 * @param commands
+	 *            a list with GRASS commands
+	 * @param gisdbase
+	 *            the GRASS gisdbase folder to base this execution on. It should
+	 *            already exist
+	 * @param progress
+	 *            a ProgressListener to track progress and cancel the execution
+	 * @param timeout
+	 *            the maximum time to wait for GRASS, in milliseconds. 0 means
+	 *            no timeout
+	 * @param metrics
+	 *            the metrics of the execution, to record the exit code, CPU
+	 *            time and output of GRASS. Can be null
+	 * @throws ProcessException
+	 *             if a command fails, with the output of GRASS
+	 */
+	public static void executeGrass(ArrayList<String> commands,
+			String gisdbase, ProgressListener progress, long timeout,
+			ExecutionMetrics metrics) {
+		if (metrics == null) {
+			metrics = new ExecutionMetrics("grass");
+		}
+		final ExecutionMetrics executionMetrics = metrics;
+		// script files are created for each call, so several calls can run
+		// concurrently
+		String scriptFilename;
+		String gisrcFilename;
 		final List<String> list = new ArrayList<String>();
 		ProcessBuilder pb = new ProcessBuilder(list);
 		final Map env = pb.environment();
 		if (Utils.isWindows()) {
-			createGrassScript(commands, gisdbase);
+			scriptFilename = Utils.getTempFilename("grass_script", "bat");
+			gisrcFilename = Utils.getTempFilename("geotools", "gisrc");
+			createGrassScript(commands, gisdbase, scriptFilename, gisrcFilename);
 			list.add("cmd.exe");
 			list.add("/C");
-			list.add(grassScriptFilename());
+			list.add(scriptFilename);
 		} else {
-			String gisrc = Utils.getTempFilename("geotools", "gisrc");
-			env.put("GISRC", gisrc);
+			scriptFilename = Utils.getTempFilename("grass_batchjob", "bat");
+			gisrcFilename = Utils.getTempFilename("geotools", "gisrc");
+			env.put("GISRC", gisrcFilename);
 			env.put("GRASS_MESSAGE_FORMAT", "gui");
-			env.put("GRASS_BATCH_JOB", grassBatchJobFilename());
-			createGrassBatchJobFileFromGrassCommands(commands);
+			env.put("GRASS_BATCH_JOB", scriptFilename);
+			createGrassBatchJobFileFromGrassCommands(commands, scriptFilename);
+			new File(scriptFilename).setExecutable(true);
 			list.add("grass64");
 			list.add(gisdbase);
 			list.add("/user");
 		}
 
+		final List<StreamGobbler> gobblers = new ArrayList<StreamGobbler>();
+		int exitValue;
 		try {
-			new File(grassBatchJobFilename()).setExecutable(true);
-			final Process process = pb.start();
-			final StreamGobbler errorGobbler = new StreamGobbler(
-					process.getErrorStream(), progress);
-			final StreamGobbler outputGobbler = new StreamGobbler(
-					process.getInputStream(), progress);
-			errorGobbler.start();
-			outputGobbler.start();
-			process.waitFor();
-		} catch (IOException e) {
-			throw new ProcessException("Error Executing GRASS:\n"
-					+ e.getMessage());
-		} catch (InterruptedException e) {
+			final ProgressListener listener = progress;
+			exitValue = ExternalProcessExecutor.getInstance().execute(pb,
+					new ExternalProcessExecutor.StreamHandler() {
+						public void started(Process process) {
+							gobblers.add(new StreamGobbler(process
+									.getErrorStream(), listener,
+									executionMetrics));
+							gobblers.add(new StreamGobbler(process
+									.getInputStream(), listener,
+									executionMetrics));
+							for (StreamGobbler gobbler : gobblers) {
+								gobbler.start();
+							}
+						}
+					}, progress, timeout);
+		} catch (ProcessException e) {
 			throw new ProcessException("Error Executing GRASS:\n"
 					+ e.getMessage());
+		} finally {
+			new File(scriptFilename).delete();
+			new File(gisrcFilename).delete();
 		}
 
-	}
-
-	private static String grassBatchJobFilename() {
-		if (grassBatchJobFilename == null) {
-			grassBatchJobFilename = Utils.getTempFilename("grass_batchjob",
-					"bat");
+		// the streams are read until the end, so the output is complete
+		for (StreamGobbler gobbler : gobblers) {
+			try {
+				gobbler.join(GOBBLER_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
-		return grassBatchJobFilename;
-	}
-
-	private static String grassScriptFilename() {
-		if (grassScriptFilename == null) {
-			grassScriptFilename = Utils.getTempFilename("grass_script", "bat");
+		// GRASS does not always pass on the exit value of the batch job, so
+		// the one printed by the job is used if there is one
+		for (StreamGobbler gobbler : gobblers) {
+			if (gobbler.exitValue != null) {
+				exitValue = gobbler.exitValue.intValue();
+			}
 		}
-		return grassScriptFilename;
-	}
-
-	private static String getGisrcFilename() {
-		if (gisrcFilename == null) {
-			gisrcFilename = Utils.getTempFilename("geotools", "gisrc");
+		metrics.addExitCode(exitValue);
+		if (exitValue != 0) {
+			throw new ProcessException("GRASS exited with code " + exitValue
+					+ ":\n" + metrics.getOutputText());
 		}
-		return gisrcFilename;
+
 	}
 
 	private static void createGrassScript(ArrayList<String> commands,
-			String gisdbase) {
+			String gisdbase, String script, String gisrc) {
 		String folder = grassPath();
 
-		String script = grassScriptFilename();
-		String gisrc = getGisrcFilename();
-
 		try {
 			new File(script).createNewFile();
 			FileWriter fstream = new FileWriter(gisrc);
@@ -308,6 +381,7 @@ public class GrassUtils {
 
 			for (String command : commands) {
 				output.write(command + "\n");
+				output.write("if errorlevel 1 exit /b %errorlevel%\n");
 			}
 			output.write("\n");
 			output.write("exit\n");
@@ -322,17 +396,24 @@ public class GrassUtils {
 	}
 
 	private static void createGrassBatchJobFileFromGrassCommands(
-			List<String> commands) {
-		String filename = grassBatchJobFilename();
+			List<String> commands, String filename) {
 		try {
 			new File(filename).createNewFile();
 			final FileWriter fstream = new FileWriter(filename);
 			final BufferedWriter fout = new BufferedWriter(fstream);
+			// the job stops at the first command that fails, printing the
+			// CPU time used by the commands and the exit value
+			fout.write("fail() {\n");
+			fout.write("echo " + TIMES_MARKER + "\n");
+			fout.write("times\n");
+			fout.write("echo " + EXIT_MARKER + " $1\n");
+			fout.write("exit $1\n");
+			fout.write("}\n");
 			for (String command : commands) {
-				fout.write(command + "\n");
-				fout.write("exit");
-				fout.close();
+				fout.write(command + " || fail $?\n");
 			}
+			fout.write("fail 0");
+			fout.close();
 		} catch (Exception e) {
 			throw new ProcessException("Error creating GRASS batch job file:\n"
 					+ e.getMessage());
@@ -344,14 +425,22 @@ public class GrassUtils {
 
 class StreamGobbler extends Thread {
 
+	private static final Logger LOGGER = Logging
+			.getLogger("org.geotools.process.external.grass");
+
 	InputStream is;
-	String type;
 	private ProgressListener progress;
+	private ExecutionMetrics metrics;
+
+	// the exit value printed by the batch job, if any
+	volatile Integer exitValue;
 
-	StreamGobbler(final InputStream is, ProgressListener progress) {
+	StreamGobbler(final InputStream is, ProgressListener progress,
+			ExecutionMetrics metrics) {
 
 		this.is = is;
 		this.progress = progress;
+		this.metrics = metrics;
 
 	}
 
@@ -361,6 +450,9 @@ class StreamGobbler extends Thread {
 			final InputStreamReader isr = new InputStreamReader(is);
 			final BufferedReader br = new BufferedReader(isr);
 			String line = null;
+			// the lines of output of "times" read after the marker. The
+			// second one has the times of the child processes
+			int timesLines = -1;
 			while ((line = br.readLine()) != null) {
 				if (line.contains("GRASS_INFO_PERCENT")) {
 					try {
@@ -373,9 +465,24 @@ class StreamGobbler extends Thread {
 					} catch (NumberFormatException e) {
 						// we ignore this
 					}
-				}
- else {
-					System.out.println(line);
+				} else if (line.equals(GrassUtils.TIMES_MARKER)) {
+					timesLines = 0;
+				} else if (line.startsWith(GrassUtils.EXIT_MARKER)) {
+					try {
+						exitValue = Integer.valueOf(line.substring(
+								GrassUtils.EXIT_MARKER.length()).trim());
+					} catch (NumberFormatException e) {
+						// we ignore this
+					}
+				} else if (timesLines >= 0
+						&& ExecutionMetrics.parseTimes(line) >= 0) {
+					if (++timesLines == 2) {
+						metrics.addChildCpuTime(ExecutionMetrics
+								.parseTimes(line));
+					}
+				} else if (line.trim().length() > 0) {
+					metrics.addOutputLine(line);
+					LOGGER.fine(line);
 				}
 			}
 		} catch (final IOException ioe) {
@@ -0,0 +1,175 @@
+package org.geotools.process.external.saga;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only DataBuffer over the cells of a SAGA grid in a set of (mapped)
+ * byte buffers, each holding a strip of rows. Rows stored from bottom to top
+ * are flipped on the fly, and values are multiplied by the Z factor of the
+ * grid, so the buffers are never copied.
+ *
+ */
+class MappedDataBuffer extends DataBuffer {
+
+	private static final int BYTE_UNSIGNED = 0;
+	private static final int BYTE = 1;
+	private static final int SHORTINT_UNSIGNED = 2;
+	private static final int SHORTINT = 3;
+	private static final int INTEGER_UNSIGNED = 4;
+	private static final int INTEGER = 5;
+	private static final int FLOAT = 6;
+	private static final int DOUBLE = 7;
+
+	private static final String[] FORMATS = new String[] { "BYTE_UNSIGNED",
+			"BYTE", "SHORTINT_UNSIGNED", "SHORTINT", "INTEGER_UNSIGNED",
+			"INTEGER", "FLOAT", "DOUBLE" };
+	private static final int[] BYTES = new int[] { 1, 1, 2, 2, 4, 4, 4, 8 };
+	// types wide enough to hold each format
+	private static final int[] TYPES = new int[] { TYPE_BYTE, TYPE_SHORT,
+			TYPE_USHORT, TYPE_SHORT, TYPE_DOUBLE, TYPE_INT, TYPE_FLOAT,
+			TYPE_DOUBLE };
+
+	private final ByteBuffer[] strips;
+	private final int rowsPerStrip;
+	private final int format;
+	private final int width;
+	private final int height;
+	private final boolean flipped;
+	private final double zFactor;
+
+	/**
+	 * @param strips
+	 *            the buffers with the rows, in the order they are stored
+	 * @param rowsPerStrip
+	 *            the number of rows in each buffer, except maybe the last one
+	 */
+	MappedDataBuffer(ByteBuffer[] strips, int rowsPerStrip, String format,
+			int width, int height, boolean flipped, double zFactor)
+			throws IOException {
+		super(getType(getFormat(format), zFactor), width * height);
+		this.strips = strips;
+		this.rowsPerStrip = rowsPerStrip;
+		this.format = getFormat(format);
+		this.width = width;
+		this.height = height;
+		this.flipped = flipped;
+		this.zFactor = zFactor;
+	}
+
+	static int getBytes(String format) throws IOException {
+		return BYTES[getFormat(format)];
+	}
+
+	private static int getFormat(String format) throws IOException {
+		for (int i = 0; i < FORMATS.length; i++) {
+			if (FORMATS[i].equalsIgnoreCase(format)) {
+				return i;
+			}
+		}
+		throw new IOException("Unsupported SAGA grid format: " + format);
+	}
+
+	private static int getType(int format, double zFactor) {
+		if (zFactor == 1) {
+			return TYPES[format];
+		}
+		// scaled values are not integers
+		return format == FLOAT ? TYPE_FLOAT : TYPE_DOUBLE;
+	}
+
+	// the row in the buffers of the i-th cell, counting from the top
+	private int getRow(int i) {
+		int row = i / width;
+		return flipped ? height - 1 - row : row;
+	}
+
+	// the buffer with the i-th cell
+	private ByteBuffer getStrip(int i) {
+		return strips[getRow(i) / rowsPerStrip];
+	}
+
+	// the position of the i-th cell in its buffer
+	private int getPosition(int i) {
+		int col = i % width;
+		return ((getRow(i) % rowsPerStrip) * width + col) * BYTES[format];
+	}
+
+	@Override
+	public int getElem(int bank, int i) {
+		if (zFactor != 1) {
+			return (int) getElemDouble(bank, i);
+		}
+		ByteBuffer buffer = getStrip(i);
+		int pos = getPosition(i);
+		switch (format) {
+		case BYTE_UNSIGNED:
+			return buffer.get(pos) & 0xff;
+		case BYTE:
+			return buffer.get(pos);
+		case SHORTINT_UNSIGNED:
+			return buffer.getShort(pos) & 0xffff;
+		case SHORTINT:
+			return buffer.getShort(pos);
+		case INTEGER:
+			return buffer.getInt(pos);
+		default:
+			return (int) getElemDouble(bank, i);
+		}
+	}
+
+	@Override
+	public float getElemFloat(int bank, int i) {
+		return (float) getElemDouble(bank, i);
+	}
+
+	@Override
+	public double getElemDouble(int bank, int i) {
+		ByteBuffer buffer = getStrip(i);
+		int pos = getPosition(i);
+		double value;
+		switch (format) {
+		case BYTE_UNSIGNED:
+			value = buffer.get(pos) & 0xff;
+			break;
+		case BYTE:
+			value = buffer.get(pos);
+			break;
+		case SHORTINT_UNSIGNED:
+			value = buffer.getShort(pos) & 0xffff;
+			break;
+		case SHORTINT:
+			value = buffer.getShort(pos);
+			break;
+		case INTEGER_UNSIGNED:
+			value = buffer.getInt(pos) & 0xffffffffL;
+			break;
+		case INTEGER:
+			value = buffer.getInt(pos);
+			break;
+		case FLOAT:
+			value = buffer.getFloat(pos);
+			break;
+		default:
+			value = buffer.getDouble(pos);
+		}
+		return value * zFactor;
+	}
+
+	@Override
+	public void setElem(int bank, int i, int val) {
+		throw new UnsupportedOperationException("SAGA grids are read-only");
+	}
+
+	@Override
+	public void setElemFloat(int bank, int i, float val) {
+		throw new UnsupportedOperationException("SAGA grids are read-only");
+	}
+
+	@Override
+	public void setElemDouble(int bank, int i, double val) {
+		throw new UnsupportedOperationException("SAGA grids are read-only");
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.geotools.process.external.saga;
+
+import org.geotools.process.external.AlgorithmCatalog;
+
+/**
+ * The SAGA algorithms described in sagadesc.txt. A single instance is shared
+ * by all the SagaProcessFactory instances.
+ *
+ */
+public class SagaCatalog extends AlgorithmCatalog<SagaProcess> {
+
+	private static SagaCatalog instance;
+
+	public SagaCatalog() {
+		super("saga", "/sagadesc.txt");
+	}
+
+	public static synchronized SagaCatalog getInstance() {
+		if (instance == null) {
+			instance = new SagaCatalog();
+		}
+		return instance;
+	}
+
+	@Override
+	protected SagaProcess createProcess(String desc) {
+		return new SagaProcess(desc);
+	}
+
+}
@@ -0,0 +1,240 @@
+package org.geotools.process.external.saga;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Reads SAGA grids (.sgrd/.sdat) as grid coverages, without converting them
+ * with io_gdal.
+ *
+ * The .sdat file is memory-mapped in strips of rows, and the coverage is
+ * backed by a raster reading its cells directly from the mapped buffers, so
+ * no copy of the data is made. Strips that cannot be mapped are read into
+ * memory instead. Coverages are read-only. Cell values are multiplied by the
+ * Z factor of the grid, and its no-data value is set as the GC_NODATA
+ * property of the coverage.
+ *
+ */
+public class SagaGridReader {
+
+	public static final String NODATA_PROPERTY = "GC_NODATA";
+
+	// the largest region FileChannel.map can map
+	private static final int MAX_STRIP_SIZE = Integer.MAX_VALUE;
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	/**
+	 * Reads a whole SAGA grid
+	 *
+	 * @param file
+	 *            the .sgrd file
+	 * @param crs
+	 *            the CRS of the grid, since SAGA does not store it
+	 */
+	public static GridCoverage2D read(File file, CoordinateReferenceSystem crs)
+			throws IOException {
+		return read(file, crs, null);
+	}
+
+	/**
+	 * Reads the part of a SAGA grid within an envelope. Only the rows in the
+	 * envelope are mapped.
+	 *
+	 * @param file
+	 *            the .sgrd file
+	 * @param crs
+	 *            the CRS of the grid, since SAGA does not store it
+	 * @param window
+	 *            the envelope to read, or null to read the whole grid
+	 */
+	public static GridCoverage2D read(File file, CoordinateReferenceSystem crs,
+			Envelope window) throws IOException {
+		return read(file, crs, window, MAX_STRIP_SIZE);
+	}
+
+	static GridCoverage2D read(File file, CoordinateReferenceSystem crs,
+			Envelope window, int maxStripSize) throws IOException {
+
+		Map<String, String> header = readHeader(file);
+		int width = getInt(header, "CELLCOUNT_X");
+		int height = getInt(header, "CELLCOUNT_Y");
+		double cellsize = getDouble(header, "CELLSIZE");
+		double minX = getDouble(header, "POSITION_XMIN") - cellsize / 2;
+		double minY = getDouble(header, "POSITION_YMIN") - cellsize / 2;
+		double maxY = minY + height * cellsize;
+		long offset = header.containsKey("DATAFILE_OFFSET") ? Long
+				.parseLong(header.get("DATAFILE_OFFSET")) : 0;
+		String format = header.get("DATAFORMAT");
+		int bytes = MappedDataBuffer.getBytes(format);
+		boolean bigEndian = "TRUE".equalsIgnoreCase(header
+				.get("BYTEORDER_BIG"));
+		boolean topToBottom = "TRUE".equalsIgnoreCase(header
+				.get("TOPTOBOTTOM"));
+		double nodata = header.containsKey("NODATA_VALUE") ? getDouble(header,
+				"NODATA_VALUE") : SagaGridWriter.DEFAULT_NODATA;
+		double zFactor = header.containsKey("Z_FACTOR") ? getDouble(header,
+				"Z_FACTOR") : 1;
+
+		// the columns and rows (from the top) to read
+		int col0 = 0;
+		int col1 = width;
+		int row0 = 0;
+		int row1 = height;
+		if (window != null) {
+			col0 = Math.max(0, (int) Math.floor((window.getMinimum(0) - minX)
+					/ cellsize));
+			col1 = Math.min(width, (int) Math.ceil((window.getMaximum(0) - minX)
+					/ cellsize));
+			row0 = Math.max(0, (int) Math.floor((maxY - window.getMaximum(1))
+					/ cellsize));
+			row1 = Math.min(height, (int) Math.ceil((maxY - window
+					.getMinimum(1))
+					/ cellsize));
+			if (col1 <= col0 || row1 <= row0) {
+				throw new IOException("Window does not intersect grid " + file);
+			}
+		}
+		int rows = row1 - row0;
+		// a raster cannot have more cells than this, whatever their size
+		if ((long) rows * width > Integer.MAX_VALUE) {
+			throw new IOException("Grid is too large to be read: " + file);
+		}
+		if ((long) width * bytes > maxStripSize) {
+			throw new IOException("Grid rows are too large to be read: " + file);
+		}
+		int rowSize = width * bytes;
+		int rowsPerStrip = Math.min(rows, maxStripSize / rowSize);
+
+		// rows are stored from bottom to top, unless stated otherwise
+		int firstRow = topToBottom ? row0 : height - row1;
+		File dataFile = new File(SagaGridWriter.getDataFilename(file
+				.getPath()));
+		ByteBuffer[] strips = new ByteBuffer[(rows + rowsPerStrip - 1)
+				/ rowsPerStrip];
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			for (int i = 0; i < strips.length; i++) {
+				int stripRows = Math.min(rowsPerStrip, rows - i * rowsPerStrip);
+				strips[i] = readStrip(channel, offset
+						+ (long) (firstRow + i * rowsPerStrip) * rowSize,
+						stripRows * rowSize);
+				strips[i].order(bigEndian ? ByteOrder.BIG_ENDIAN
+						: ByteOrder.LITTLE_ENDIAN);
+			}
+		} finally {
+			raf.close();
+		}
+
+		MappedDataBuffer data = new MappedDataBuffer(strips, rowsPerStrip,
+				format, width, rows, !topToBottom, zFactor);
+		SampleModel sm = new ComponentSampleModel(data.getDataType(), width,
+				rows, 1, width, new int[] { 0 });
+		WritableRaster raster = Raster.createWritableRaster(sm, data, null);
+		if (col0 > 0 || col1 < width) {
+			raster = raster.createWritableChild(col0, 0, col1 - col0, rows, 0,
+					0, null);
+		}
+		ComponentColorModel cm = new ComponentColorModel(ColorSpace
+				.getInstance(ColorSpace.CS_GRAY), false, false,
+				Transparency.OPAQUE, data.getDataType());
+		BufferedImage image = new BufferedImage(cm, raster, false, null);
+
+		ReferencedEnvelope envelope = new ReferencedEnvelope(minX + col0
+				* cellsize, minX + col1 * cellsize, maxY - row1 * cellsize, maxY
+				- row0 * cellsize, crs);
+		String name = header.containsKey("NAME") ? header.get("NAME") : file
+				.getName();
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(NODATA_PROPERTY, new Double(nodata));
+		return covFactory.create(name, image, envelope,
+				new GridSampleDimension[] { new GridSampleDimension(name) },
+				null, properties);
+
+	}
+
+	// Maps a strip of the data file. The mapping remains valid once the
+	// channel is closed. If it cannot be mapped (for instance, when there is
+	// no address space left), the strip is read into memory instead
+	private static ByteBuffer readStrip(FileChannel channel, long position,
+			int size) throws IOException {
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		} catch (IOException e) {
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of SAGA grid data");
+				}
+			}
+			buffer.clear();
+			return buffer;
+		}
+	}
+
+	// Reads the "KEY = VALUE" lines of a .sgrd file
+	private static Map<String, String> readHeader(File file) throws IOException {
+		Map<String, String> header = new HashMap<String, String>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				int idx = line.indexOf("=");
+				if (idx > 0) {
+					header.put(line.substring(0, idx).trim().toUpperCase(),
+							line.substring(idx + 1).trim());
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return header;
+	}
+
+	private static int getInt(Map<String, String> header, String key)
+			throws IOException {
+		return (int) getDouble(header, key);
+	}
+
+	private static double getDouble(Map<String, String> header, String key)
+			throws IOException {
+		String value = header.get(key);
+		if (value == null) {
+			throw new IOException("Missing " + key + " in SAGA grid header");
+		}
+		try {
+			return Double.parseDouble(value.replace(",", "."));
+		} catch (NumberFormatException e) {
+			throw new IOException("Wrong " + key + " in SAGA grid header: "
+					+ value);
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+package org.geotools.process.external.saga;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.geometry.Envelope;
+
+/**
+ * Writes grid coverages in the native SAGA format, so they do not have to be
+ * imported with io_gdal.
+ *
+ * Each band is written as a .sgrd header and a .sdat binary file. Coverages
+ * with several bands are written as a set of single-band grids, named
+ * <name>_000<band>.sgrd, as io_gdal does. SAGA grids have square cells, so
+ * coverages with different cell sizes in x and y cannot be written.
+ *
+ */
+public class SagaGridWriter {
+
+	// the no-data value used if the coverage does not define one
+	public static final double DEFAULT_NODATA = -99999;
+
+	// the size of the strips of the image that are read at once
+	private static final int STRIP_SIZE = 1 << 20;
+
+	/**
+	 * Returns true if the coverage can be written as a SAGA grid
+	 */
+	public static boolean canWrite(GridCoverage2D gc) {
+		RenderedImage image = gc.getRenderedImage();
+		Envelope envelope = gc.getEnvelope();
+		double cellsizeX = envelope.getSpan(0) / image.getWidth();
+		double cellsizeY = envelope.getSpan(1) / image.getHeight();
+		if (Math.abs(cellsizeX - cellsizeY) > cellsizeX * 1e-6) {
+			return false;
+		}
+		return getDataFormat(image.getSampleModel().getDataType()) != null;
+	}
+
+	/**
+	 * Returns the names of the grids a coverage is written to
+	 *
+	 * @param filename
+	 *            the name of the .sgrd file
+	 * @param bands
+	 *            the number of bands in the coverage
+	 */
+	public static String[] getFilenames(String filename, int bands) {
+		if (bands == 1) {
+			return new String[] { filename };
+		}
+		String[] filenames = new String[bands];
+		String basename = filename.substring(0, filename.lastIndexOf("."))
+				+ "_000";
+		for (int i = 0; i < bands; i++) {
+			filenames[i] = basename + Integer.toString(i) + ".sgrd";
+		}
+		return filenames;
+	}
+
+	/**
+	 * Writes a coverage as a set of SAGA grids, one per band
+	 *
+	 * @param gc
+	 *            the coverage to write
+	 * @param filename
+	 *            the name of the .sgrd file
+	 * @return the names of the .sgrd files written
+	 */
+	public static String[] write(GridCoverage2D gc, String filename)
+			throws IOException {
+		if (!canWrite(gc)) {
+			throw new IOException("Coverage cannot be written as a SAGA grid");
+		}
+		RenderedImage image = gc.getRenderedImage();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int bands = image.getSampleModel().getNumBands();
+		int dataType = image.getSampleModel().getDataType();
+		int bytes = DataBuffer.getDataTypeSize(dataType) / 8;
+		double nodata = getNoData(gc);
+		String[] filenames = getFilenames(filename, bands);
+
+		Envelope envelope = gc.getEnvelope();
+		double cellsize = envelope.getSpan(0) / width;
+		for (int i = 0; i < bands; i++) {
+			writeHeader(filenames[i], gc.getName().toString(),
+					getDataFormat(dataType), envelope.getMinimum(0) + cellsize
+							/ 2, envelope.getMinimum(1) + cellsize / 2, width,
+					height, cellsize, nodata);
+		}
+
+		FileChannel[] channels = new FileChannel[bands];
+		try {
+			for (int i = 0; i < bands; i++) {
+				channels[i] = new FileOutputStream(getDataFilename(filenames[i]))
+						.getChannel();
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect(width * bytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			int stripHeight = Math.max(1, STRIP_SIZE / (width * bytes * bands));
+			int minX = image.getMinX();
+			int minY = image.getMinY();
+			// SAGA stores rows from bottom to top
+			for (int bottom = height; bottom > 0; bottom -= stripHeight) {
+				int top = Math.max(0, bottom - stripHeight);
+				Raster data = image.getData(new Rectangle(minX, minY + top,
+						width, bottom - top));
+				for (int y = bottom - 1; y >= top; y--) {
+					for (int i = 0; i < bands; i++) {
+						buffer.clear();
+						putRow(data, minX, minY + y, width, i, dataType,
+								nodata, buffer);
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							channels[i].write(buffer);
+						}
+					}
+				}
+			}
+		} finally {
+			for (int i = 0; i < bands; i++) {
+				if (channels[i] != null) {
+					channels[i].close();
+				}
+			}
+		}
+		return filenames;
+	}
+
+	/**
+	 * Returns the name of the .sdat file of a SAGA grid
+	 */
+	public static String getDataFilename(String filename) {
+		return filename.substring(0, filename.lastIndexOf(".")) + ".sdat";
+	}
+
+	private static void putRow(Raster data, int x, int y, int width,
+			int band, int dataType, double nodata, ByteBuffer buffer) {
+		switch (dataType) {
+		case DataBuffer.TYPE_BYTE:
+			int[] bytes = data.getSamples(x, y, width, 1, band, (int[]) null);
+			for (int i = 0; i < width; i++) {
+				buffer.put((byte) bytes[i]);
+			}
+			break;
+		case DataBuffer.TYPE_SHORT:
+		case DataBuffer.TYPE_USHORT:
+			int[] shorts = data.getSamples(x, y, width, 1, band, (int[]) null);
+			for (int i = 0; i < width; i++) {
+				buffer.putShort((short) shorts[i]);
+			}
+			break;
+		case DataBuffer.TYPE_INT:
+			int[] ints = data.getSamples(x, y, width, 1, band, (int[]) null);
+			for (int i = 0; i < width; i++) {
+				buffer.putInt(ints[i]);
+			}
+			break;
+		case DataBuffer.TYPE_FLOAT:
+			float[] floats = data.getSamples(x, y, width, 1, band,
+					(float[]) null);
+			for (int i = 0; i < width; i++) {
+				// SAGA does not handle NaN as no-data
+				buffer.putFloat(Float.isNaN(floats[i]) ? (float) nodata
+						: floats[i]);
+			}
+			break;
+		default:
+			double[] doubles = data.getSamples(x, y, width, 1, band,
+					(double[]) null);
+			for (int i = 0; i < width; i++) {
+				buffer.putDouble(Double.isNaN(doubles[i]) ? nodata
+						: doubles[i]);
+			}
+		}
+	}
+
+	private static void writeHeader(String filename, String name,
+			String format, double xmin, double ymin, int width, int height,
+			double cellsize, double nodata) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(filename));
+		try {
+			out.write("NAME\t= " + name + "\n");
+			out.write("DESCRIPTION\t=\n");
+			out.write("UNIT\t=\n");
+			out.write("DATAFILE_OFFSET\t= 0\n");
+			out.write("DATAFORMAT\t= " + format + "\n");
+			out.write("BYTEORDER_BIG\t= FALSE\n");
+			out.write("POSITION_XMIN\t= " + Double.toString(xmin) + "\n");
+			out.write("POSITION_YMIN\t= " + Double.toString(ymin) + "\n");
+			out.write("CELLCOUNT_X\t= " + Integer.toString(width) + "\n");
+			out.write("CELLCOUNT_Y\t= " + Integer.toString(height) + "\n");
+			out.write("CELLSIZE\t= " + Double.toString(cellsize) + "\n");
+			out.write("Z_FACTOR\t= 1.000000\n");
+			out.write("NODATA_VALUE\t= " + Double.toString(nodata) + "\n");
+			out.write("TOPTOBOTTOM\t= FALSE\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String getDataFormat(int dataType) {
+		switch (dataType) {
+		case DataBuffer.TYPE_BYTE:
+			return "BYTE_UNSIGNED";
+		case DataBuffer.TYPE_SHORT:
+			return "SHORTINT";
+		case DataBuffer.TYPE_USHORT:
+			return "SHORTINT_UNSIGNED";
+		case DataBuffer.TYPE_INT:
+			return "INTEGER";
+		case DataBuffer.TYPE_FLOAT:
+			return "FLOAT";
+		case DataBuffer.TYPE_DOUBLE:
+			return "DOUBLE";
+		default:
+			return null;
+		}
+	}
+
+	// Returns the no-data value of a coverage, as set by SagaGridReader or
+	// declared by its first band
+	private static double getNoData(GridCoverage2D gc) {
+		Object prop = gc.getProperty(SagaGridReader.NODATA_PROPERTY);
+		if (prop instanceof Number) {
+			return ((Number) prop).doubleValue();
+		}
+		GridSampleDimension band = gc.getSampleDimension(0);
+		double[] nodata = band.getNoDataValues();
+		if (nodata != null && nodata.length > 0 && !Double.isNaN(nodata[0])) {
+			return nodata[0];
+		}
+		return DEFAULT_NODATA;
+	}
+
+}
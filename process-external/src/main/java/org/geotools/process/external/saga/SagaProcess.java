@@ -2,42 +2,58 @@ package org.geotools.process.external.saga;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.data.DataSourceException;
+import org.geotools.coverage.grid.ViewType;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Parameter;
-import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
-import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics.Phase;
+import org.geotools.process.external.ExportCache;
 import org.geotools.process.external.ExternalProcess;
+import org.geotools.process.external.FeatureResult;
+import org.geotools.process.external.FileSources;
 import org.geotools.process.external.Parameters;
+import org.geotools.process.external.ProcessChain;
+import org.geotools.process.external.RasterResult;
 import org.geotools.process.external.Utils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.util.SimpleInternationalString;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.util.ProgressListener;
 
 public class SagaProcess extends ExternalProcess {
 
 	public static final String SAGA_OUTPUT_EXTENT = "extent";
+	// the key for imported layers in the ExportCache
+	private static final String SAGA_CACHE_KEY = "saga";
 
 	private String cmdname;
 	private String modulelib;
 	private String[] extentParamNames;
 	private HashMap<String, String[]> fixedTableCols;
 	private HashMap<String, String> outputFilenames = new HashMap<String, String>();	
+	// layers being imported into the export cache in the current execution
+	private HashMap<ExportCache.Entry, String[]> pendingImports = new HashMap<ExportCache.Entry, String[]>();
+	// the CRS given to the results of the current execution
+	private CoordinateReferenceSystem outputCrs;
+	// result layers that are deleted along with the exported ones
+	private List<String> outputLayers = new ArrayList<String>();
 
 	public SagaProcess(String desc) {
 		outputFilenames = new HashMap<String, String>();
@@ -92,6 +108,8 @@ public class SagaProcess extends ExternalProcess {
 						1, 1, null, null);
 				inputs.put(this.SAGA_OUTPUT_EXTENT, param);
 				extentParamNames = line.substring(7).split(" ");
+			} else if (line.startsWith("TileSafe")) {
+				setTileSafe(line);
 			} else if (line.equals("")) {
 				break;
 			} else {
@@ -99,11 +117,37 @@ public class SagaProcess extends ExternalProcess {
 				outputs.put(output.key.toLowerCase(), output);
 			}
 		}
+		addResultParameters();
 
 
 	}
 
-	public Map<String, Object> _execute(Map<String, Object> params_org,
+	private SagaProcess(SagaProcess prototype) {
+		inputs = prototype.inputs;
+		outputs = prototype.outputs;
+		name = prototype.name;
+		description = prototype.description;
+		tileHalo = prototype.tileHalo;
+		cmdname = prototype.cmdname;
+		modulelib = prototype.modulelib;
+		extentParamNames = prototype.extentParamNames;
+		fixedTableCols = prototype.fixedTableCols;
+	}
+
+	@Override
+	public SagaProcess newInstance() {
+		return new SagaProcess(this);
+	}
+
+	public Map<String, Object> _execute(Map<String, Object> params,
+			ProgressListener progress) throws ProcessException {
+
+		return runSteps(params, progress);
+
+	}
+
+	@Override
+	protected List<String> prepareStep(Map<String, Object> params_org,
 			ProgressListener progress) throws ProcessException {
 
 		Map<String, Object> params = new HashMap<String, Object>();
@@ -117,6 +161,8 @@ public class SagaProcess extends ExternalProcess {
 		
 		ArrayList<String> commands = new ArrayList<String>();
 		exportedLayers = new HashMap<Object, String[]>();
+		outputFilenames = new HashMap<String, String>();
+		pendingImports = new HashMap<ExportCache.Entry, String[]>();
 		
 		//1. Export layers
 		
@@ -143,12 +189,15 @@ public class SagaProcess extends ExternalProcess {
 				if (param.getType().isArray()) {
 					Object[] arr = (Object[]) value;
 					for (int i = 0; i < arr.length; i++) {
+						if (addGroupLayer(arr[i])) {
+							continue;
+						}
 						String exportCommand = exportRasterLayer((GridCoverage2D) arr[i]); 
 						if (exportCommand != null){
 							commands.add(exportCommand);
 						}
 					}
-				} else {
+				} else if (!addGroupLayer(value)) {
 					String exportCommand = exportRasterLayer((GridCoverage2D) value); 
 					if (exportCommand != null){
 						commands.add(exportCommand);
@@ -160,9 +209,11 @@ public class SagaProcess extends ExternalProcess {
 				if (param.getType().isArray()) {
 					Object[] arr = (Object[]) value;
 					for (int i = 0; i < arr.length; i++) {
-						exportVectorLayer((FeatureCollection) arr[i]);
+						if (!addGroupLayer(arr[i])) {
+							exportVectorLayer((FeatureCollection) arr[i]);
+						}
 					}
-				} else {
+				} else if (!addGroupLayer(value)) {
 					exportVectorLayer((FeatureCollection) value);
 				}
 			}
@@ -282,66 +333,99 @@ public class SagaProcess extends ExternalProcess {
 			Parameter param = outputs.get(key);			
 				String filename = null;
 				if (param.getType().equals(GridCoverage2D.class)) {
-					filename = getTempLayerFilename(key, "tif");
-					command += " -" + param.getName() + " \"" + filename + ".sgrd\"";
+					filename = getTempLayerFilename(key, "sgrd");
+					command += " -" + param.getName() + " \"" + filename + "\"";
 				} else {
 					filename = getTempLayerFilename(key, "shp");
 					command += " -" + param.getName() + " \"" + filename + "\"";
 				}
-				outputFilenames.put(key, filename);							
+				outputFilenames.put(key, filename);
+				// later steps of the group may read any output, so they are
+				// all deleted when the group is finished
+				if (appProcessGroup != null) {
+					outputLayers.add(filename);
+				}
 		}
 		
 		commands.add(command);
+		outputCrs = getOutputCrs(params);
+		return commands;
 
-		// 3:Export resulting raster layers to a format that geotools can read
+	}
 
-		set = outputs.keySet();
-		iter = set.iterator();
-		while (iter.hasNext()) {
-			String key = iter.next();
-			Parameter param = outputs.get(key);
-			if (param.getType().equals(GridCoverage2D.class)) {
-				String filename = outputFilenames.get(key);					                    
-        		if (Utils.isWindows()){
-                    commands.add("io_gdal 1 -GRIDS \"" + filename + ".sgrd"
-                                    + "\" -FORMAT 1 -TYPE 0 -FILE \""
-                                    + filename + "\"");
-                }
-                else{
-                	commands.add("io_gdal 1 -GRIDS \"" + filename + ".sgrd"
-                            + "\" -FORMAT 1 -TYPE 0 -FILE \""
-                            + filename + "\"");
-                }
-			} 
-		}
+	@Override
+	protected String[] getOutputLayerFilenames(String output) {
+		String filename = outputFilenames.get(output.toLowerCase());
+		return filename != null ? new String[] { filename } : null;
+	}
+
+	@Override
+	protected Collection<String> getResultFilenames() {
+		return outputFilenames.values();
+	}
+
+	@Override
+	protected void runBatch(List<String> commands, ProgressListener progress)
+			throws ProcessException {
+		SagaUtils.executeSaga(commands.toArray(new String[0]), progress,
+				timeout, metrics);
+	}
+
+	@Override
+	protected Map<String, Object> readStepResults() throws ProcessException {
 
-		SagaUtils.executeSaga(commands.toArray(new String[0]), progress);
+		// 3. Resulting raster layers are read directly from the SAGA grids, so
+		// they do not have to be exported to a format that geotools can read
+
+		// cache the layers that were successfully imported
+		for (ExportCache.Entry entry : pendingImports.keySet()) {
+			String[] filenames = pendingImports.get(entry);
+			if (new File(filenames[0]).exists()) {
+				ExportCache.getInstance().addImportedLayers(entry,
+						SAGA_CACHE_KEY, filenames);
+			}
+		}
+		pendingImports.clear();
 
 		// 4. Open resulting layers and return results map
 
 		HashMap<String, Object> results = new HashMap<String, Object>();
-		set = outputs.keySet();
-		iter = set.iterator();
+		Iterator<String> iter = outputs.keySet().iterator();
 		while (iter.hasNext()) {
 			String key = iter.next();
 			Parameter param = outputs.get(key);
 			String filename = outputFilenames.get(key);
-			if (param.getType().equals(GridCoverage2D.class)) {
-				GeoTiffReader reader;
+			if (!isRequested(key)) {
+				continue;
+			}
+			if (lazyResults && param.getType().equals(GridCoverage2D.class)) {
+				RasterResult result = new SagaRasterResult(filename, outputCrs);
+				if (appProcessGroup != null){
+					result.setProcessGroup(appProcessGroup, new String[]{filename});
+				} else {
+					result.setDeleteOnDispose(true);
+				}
+				results.put(key, result);
+			} else if (lazyResults && param.getType().equals(FeatureCollection.class)) {
+				FeatureResult result = new FeatureResult(filename);
+				if (appProcessGroup != null){
+					result.setProcessGroup(appProcessGroup, new String[]{filename});
+				} else {
+					result.setDeleteOnDispose(true);
+				}
+				results.put(key, result);
+			} else if (param.getType().equals(GridCoverage2D.class)) {
 				try {
-					reader = new GeoTiffReader(new File(filename), new Hints(
-							Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER,
-							Boolean.TRUE));
-					if (reader != null) {
-						GridCoverage2D gc = (GridCoverage2D) reader.read(null);
-						results.put(key, gc);
-						if (appProcessGroup != null){
-							appProcessGroup.addLayerFilename(gc, new String[]{filename + ".sgrd"});
-						}
+					GridCoverage2D gc = SagaGridReader.read(new File(filename),
+							outputCrs);
+					addBytesRead(filename);
+					results.put(key, gc);
+					if (appProcessGroup != null){
+						appProcessGroup.addLayerFilename(gc, new String[]{filename});
+					} else {
+						// the grid stays mapped once its files are deleted
+						outputLayers.add(filename);
 					}
-				} catch (DataSourceException e) {
-					throw new ProcessException("Error reading result layers:\n"
-							+ e.getMessage());
 				} catch (IOException e) {
 					throw new ProcessException("Error reading result layers:\n"
 							+ e.getMessage());
@@ -354,11 +438,18 @@ public class SagaProcess extends ExternalProcess {
 					DataStore dataStore = DataStoreFinder.getDataStore(map);
 					String typeName = dataStore.getTypeNames()[0];
 					FeatureSource source = dataStore.getFeatureSource(typeName);
-					FeatureCollection fc = source.getFeatures();
-					results.put(key, fc);
+					// the shapefile is deleted when the execution (or its
+					// group) is finished, so features are loaded in memory
+					FeatureCollection fc = DataUtilities.collection(source
+							.getFeatures());
+					dataStore.dispose();
+					addBytesRead(filename);
 					if (appProcessGroup != null){
 						appProcessGroup.addLayerFilename(fc, new String[]{filename});
+					} else {
+						outputLayers.add(filename);
 					}
+					results.put(key, fc);
 				} catch (IOException e) {
 					throw new ProcessException("Error reading result layers:\n"
 							+ e.getMessage());
@@ -372,40 +463,87 @@ public class SagaProcess extends ExternalProcess {
 
 	}
 
+	// SAGA grids have no CRS, so results are given the one of the first input
+	// layer, or WGS84 if there is none
+	private CoordinateReferenceSystem getOutputCrs(Map<String, Object> params) {
+		for (Object value : params.values()) {
+			if (value instanceof Object[] && ((Object[]) value).length > 0) {
+				value = ((Object[]) value)[0];
+			}
+			CoordinateReferenceSystem crs = null;
+			if (value instanceof GridCoverage2D) {
+				crs = ((GridCoverage2D) value).getCoordinateReferenceSystem();
+			} else if (value instanceof FeatureCollection) {
+				crs = ((FeatureCollection) value).getSchema()
+						.getCoordinateReferenceSystem();
+			} else if (value instanceof ProcessChain.Output) {
+				crs = ((ProcessChain.Output) value).getCoordinateReferenceSystem();
+			}
+			if (crs != null) {
+				return crs;
+			}
+		}
+		return DefaultGeographicCRS.WGS84;
+	}
+
 	private void exportVectorLayer(FeatureCollection fc) {
 		String intermediateFilename = saveVectorLayer(fc);
 		exportedLayers.put(fc, new String[] { intermediateFilename });
 	}
 
 	private String exportRasterLayer(GridCoverage2D gc) {
-		// we do not save if it has been saved before in this SagaProcessGroup (in
-		// case the process belong to one)
-		if (appProcessGroup != null) {
-			String[] filenames = appProcessGroup.getLayerFilenames(gc);
+		// we do not save if it has been imported before by any other process
+		// (layers saved before in this SagaProcessGroup are already in
+		// exportedLayers). File-based
+		// layers are imported directly from their file, so they are not
+		// cached
+		boolean fileBased = FileSources.getSourceFile(gc) != null;
+		ExportCache.Entry entry = fileBased ? null : getCacheEntry(gc);
+		if (entry != null) {
+			String[] filenames = ExportCache.getInstance().getImportedLayers(
+					entry, SAGA_CACHE_KEY);
 			if (filenames != null) {
 				exportedLayers.put(gc, filenames);
+				if (appProcessGroup != null){
+					appProcessGroup.addLayerFilename(gc, filenames);
+				}
 				return null;
 			}
 		}
+		// most layers are written directly as SAGA grids, without io_gdal
+		GridCoverage2D nativeGc = gc.view(ViewType.NATIVE);
+		if (!fileBased && SagaGridWriter.canWrite(nativeGc)) {
+			String[] filenames = writeSagaGrid(nativeGc, gc);
+			exportedLayers.put(gc, filenames);
+			if (appProcessGroup != null){
+				appProcessGroup.addLayerFilename(gc, filenames);
+			}
+			return null;
+		}
 		String intermediateFilename = saveRasterLayer(gc);
-		String destFilename = getTempLayerFilename("raster", "sgrd");
+		// if the layer is cached, the imported one is stored in the cache too
+		entry = cacheEntries.get(gc);
+		String destFilename = entry != null ? ExportCache.getInstance()
+				.getFilename("raster", "sgrd") : getTempLayerFilename(
+				"raster", "sgrd");
+		String[] filenames;
 		if (gc.getNumSampleDimensions() > 1) {
-			String[] filenames = new String[gc.getNumSampleDimensions()];
+			filenames = new String[gc.getNumSampleDimensions()];
 			String basename = destFilename.substring(0,
 					destFilename.lastIndexOf("."))
 					+ "_000";
 			for (int i = 0; i < filenames.length; i++) {
 				filenames[i] = basename + Integer.toString(i) + ".sgrd";
 			}
-			exportedLayers.put(gc, filenames);
-			if (appProcessGroup != null){
-				appProcessGroup.addLayerFilename(gc, filenames);
-			}
 		} else {
-			exportedLayers.put(gc, new String[] { destFilename });
-			if (appProcessGroup != null){
-				appProcessGroup.addLayerFilename(gc, new String[] { destFilename });
-			}
+			filenames = new String[] { destFilename };
+		}
+		exportedLayers.put(gc, filenames);
+		if (appProcessGroup != null){
+			appProcessGroup.addLayerFilename(gc, filenames);
+		}
+		if (entry != null) {
+			pendingImports.put(entry, filenames);
 		}
 		if (Utils.isWindows()) {
 			return "io_gdal 0 -GRIDS \"" + destFilename + "\" -FILES \""
@@ -418,45 +556,62 @@ public class SagaProcess extends ExternalProcess {
 	}
 
 
+	// Writes a layer as a set of SAGA grids. If the layer is cached, they
+	// are written in the cache folder and added to its cache entry as the
+	// layers imported by SAGA. A new entry has no exported file, so the
+	// layer is not written twice; other apps write it when they first use it
+	private String[] writeSagaGrid(GridCoverage2D nativeGc, GridCoverage2D gc) {
+		ExportCache cache = ExportCache.getInstance();
+		String key = cacheKeys.get(gc);
+		long start = System.nanoTime();
+		try {
+			if (key == null) {
+				return writeSagaGrid(nativeGc, getTempLayerFilename("raster",
+						"sgrd"));
+			}
+			String[] filenames = writeSagaGrid(nativeGc, cache.getFilename(
+					"raster", "sgrd"));
+			ExportCache.Entry entry = cacheEntries.get(gc);
+			if (entry == null) {
+				entry = addCacheEntry(gc, key, null);
+			}
+			return cache.addImportedLayers(entry, SAGA_CACHE_KEY, filenames);
+		} catch (IOException e) {
+			throw new ProcessException("Error exporting grid coverage:\n"
+					+ e.getMessage());
+		} finally {
+			metrics.addTime(Phase.EXPORT, start);
+		}
+	}
+
+	private String[] writeSagaGrid(GridCoverage2D nativeGc, String filename)
+			throws IOException {
+		String[] filenames = SagaGridWriter.write(nativeGc, filename);
+		for (int i = 0; i < filenames.length; i++) {
+			addBytesWritten(filenames[i]);
+		}
+		return filenames;
+	}
+
 	@Override
 	public void deleteExportedLayers() {
 
 		if (isAppSpecificCleared) {
 			return;
 		}
-		final Collection<String[]> inputLayers = exportedLayers.values();
-		final Collection<String> outputLayers = outputFilenames.values();
-		File[] filesToDelete = new File(tempLayersFolder).listFiles(new FileFilter() {
-			public boolean accept(File f) {
-				String filename = f.getName();
-				//check if it is an input intermediate files	
-				for (final String[] layer : inputLayers) {
-					for (int i = 0; i < layer.length; i++) {
-						String baseFilename = new File(layer[i]).getName();
-						baseFilename = baseFilename.substring(0,
-								baseFilename.lastIndexOf("."));
-						if (filename.contains(baseFilename)) {
-							return true;
-						}
-					}
-				}
-				//or an output one
-				for (final String layer : outputLayers) {				
-					String baseFilename = new File(layer).getName();
-					if (baseFilename.endsWith("tif")){					
-						if (filename.contains(baseFilename)) {
-							return true;
-						}
-					}					
-				}
-				return false;
-			}
-		});
+		List<String> inputLayers = new ArrayList<String>();
+		for (String[] layer : exportedLayers.values()) {
+			inputLayers.addAll(Arrays.asList(layer));
+		}
+		File[] filesToDelete = listLayerFiles(tempLayersFolder, inputLayers);
 		for (File file : filesToDelete) {
 			file.delete();
 		}
+		deleteLayerFiles(outputLayers);
+		outputLayers.clear();
 
 		isAppSpecificCleared = true;
+		releaseCacheEntries();
 
 	}
 
@@ -0,0 +1,42 @@
+package org.geotools.process.external.saga;
+
+import java.io.IOException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.geotools.process.external.RasterResult;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A lazy handle to a raster result stored as a SAGA grid. The grid is read
+ * with SagaGridReader, so only the rows that are requested are mapped.
+ *
+ */
+public class SagaRasterResult extends RasterResult {
+
+	private final CoordinateReferenceSystem crs;
+
+	/**
+	 * @param filename
+	 *            the .sgrd file with the result
+	 * @param crs
+	 *            the CRS of the result
+	 */
+	public SagaRasterResult(String filename, CoordinateReferenceSystem crs) {
+		super(filename);
+		this.crs = crs;
+	}
+
+	@Override
+	protected GridCoverage2D read(ReferencedEnvelope envelope)
+			throws ProcessException {
+		try {
+			return SagaGridReader.read(getFile(), crs, envelope);
+		} catch (IOException e) {
+			throw new ProcessException("Error reading result layers:\n"
+					+ e.getMessage());
+		}
+	}
+
+}
@@ -9,9 +9,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Logger;
 
 import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics;
+import org.geotools.process.external.ExternalProcessExecutor;
 import org.geotools.process.external.Utils;
+import org.geotools.util.logging.Logging;
 import org.opengis.util.ProgressListener;
 
 public class SagaUtils {
@@ -25,16 +29,42 @@ public class SagaUtils {
 		return sagaBatchJobFilename;
 	}
 
+	// printed before the output of the "times" builtin at the end of the
+	// batch job, so the CPU time of the child processes can be read
+	static final String TIMES_MARKER = "__GT_TIMES__";
+
+	// the maximum time in milliseconds to wait for the output of SAGA once it
+	// has finished
+	private static final long GOBBLER_TIMEOUT = 5000;
+
+	/**
+	 * Writes the batch job running a set of SAGA commands. The job stops at
+	 * the first command that fails, exiting with its exit code. On Unix, it
+	 * prints the CPU time used by the commands before exiting
+	 */
 	public static void createSagaBatchJobFileFromSagaCommands(
 			final String[] commands, String batchJobFilename) {
 
 		try {
 			final BufferedWriter output = new BufferedWriter(new FileWriter(
 					batchJobFilename));
-			for (int i = 0; i < commands.length; i++) {
-				output.write("saga_cmd " + commands[i] + "\n");
+			if (Utils.isWindows()) {
+				for (int i = 0; i < commands.length; i++) {
+					output.write("saga_cmd " + commands[i] + "\n");
+					output.write("if errorlevel 1 exit /b %errorlevel%\n");
+				}
+				output.write("exit");
+			} else {
+				output.write("fail() {\n");
+				output.write("echo " + TIMES_MARKER + "\n");
+				output.write("times\n");
+				output.write("exit $1\n");
+				output.write("}\n");
+				for (int i = 0; i < commands.length; i++) {
+					output.write("saga_cmd " + commands[i] + " || fail $?\n");
+				}
+				output.write("fail 0");
 			}
-			output.write("exit");
 			output.close();
 		} catch (final IOException e) {
 			throw new ProcessException("Error creating SAGA batch file:\n"
@@ -44,7 +74,41 @@ public class SagaUtils {
 	}
 
 	public static int executeSaga(String[] commands, ProgressListener progress) {
+		return executeSaga(commands, progress,
+				ExternalProcessExecutor.getDefaultTimeout());
+	}
 
+	public static int executeSaga(String[] commands,
+			final ProgressListener progress, long timeout) {
+		return executeSaga(commands, progress, timeout, null);
+	}
+
+	/**
+	 * Runs a set of SAGA commands in a single batch job. The batch job is
+	 * run through the shared ExternalProcessExecutor, so it might have to
+	 * wait for other external processes to finish.
+	 * 
+	 * @param commands
+	 *            the SAGA commands, without the saga_cmd prefix
+	 * @param progress
+	 *            a ProgressListener to track progress and cancel the execution
+	 * @param timeout
+	 *            the maximum time to wait for SAGA, in milliseconds. 0 means
+	 *            no timeout
+	 * @param metrics
+	 *            the metrics of the execution, to record the exit code, CPU
+	 *            time and output of the batch job. Can be null
+	 * @return the exit value of the batch job, which is always 0, since a
+	 *         ProcessException with the output of SAGA is thrown otherwise
+	 */
+	public static int executeSaga(String[] commands,
+			final ProgressListener progress, long timeout,
+			ExecutionMetrics metrics) {
+
+		if (metrics == null) {
+			metrics = new ExecutionMetrics("saga");
+		}
+		final ExecutionMetrics executionMetrics = metrics;
 		String batchJobFilename = getBatchJobFilename();
 		createSagaBatchJobFileFromSagaCommands(commands, batchJobFilename);
 		final List<String> list = new ArrayList<String>();
@@ -59,38 +123,64 @@ public class SagaUtils {
 			list.add(batchJobFilename);
 		}
 
-		Process process;
+		final List<StreamGobbler> gobblers = new ArrayList<StreamGobbler>();
+		int exitValue;
 		try {
-			process = pb.start();
-			final StreamGobbler errorGobbler = new StreamGobbler(
-					process.getErrorStream(), progress);
-			final StreamGobbler outputGobbler = new StreamGobbler(
-					process.getInputStream(), progress);
-			errorGobbler.start();
-			outputGobbler.start();
-			final int iReturn = process.waitFor();
-			new File(batchJobFilename).delete();
-			return iReturn;
+			exitValue = ExternalProcessExecutor.getInstance().execute(pb,
+					new ExternalProcessExecutor.StreamHandler() {
+						public void started(Process process) {
+							gobblers.add(new StreamGobbler(process
+									.getErrorStream(), progress,
+									executionMetrics));
+							gobblers.add(new StreamGobbler(process
+									.getInputStream(), progress,
+									executionMetrics));
+							for (StreamGobbler gobbler : gobblers) {
+								gobbler.start();
+							}
+						}
+					}, progress, timeout);
 		} catch (final Exception e) {
 			throw new ProcessException("Error executing SAGA:\n"
 					+ e.getMessage());
+		} finally {
+			new File(batchJobFilename).delete();
 		}
 
-	}
+		// the streams are read until the end, so the output is complete
+		for (StreamGobbler gobbler : gobblers) {
+			try {
+				gobbler.join(GOBBLER_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		metrics.addExitCode(exitValue);
+		if (exitValue != 0) {
+			throw new ProcessException("SAGA exited with code " + exitValue
+					+ ":\n" + metrics.getOutputText());
+		}
+		return exitValue;
 
+	}
 
 }
 
 class StreamGobbler extends Thread {
 
+	private static final Logger LOGGER = Logging
+			.getLogger("org.geotools.process.external.saga");
+
 	InputStream is;
-	String type;
 	ProgressListener progress;
+	ExecutionMetrics metrics;
 
-	StreamGobbler(final InputStream is, ProgressListener progress) {
+	StreamGobbler(final InputStream is, ProgressListener progress,
+			ExecutionMetrics metrics) {
 
 		this.is = is;
 		this.progress = progress;
+		this.metrics = metrics;
 
 	}
 
@@ -100,6 +190,9 @@ class StreamGobbler extends Thread {
 			final InputStreamReader isr = new InputStreamReader(is);
 			final BufferedReader br = new BufferedReader(isr);
 			String line = null;
+			// the lines of output of "times" read after the marker. The
+			// second one has the times of the child processes
+			int timesLines = -1;
 			while ((line = br.readLine()) != null) {
 				if (line.contains("%")) {
 					try {
@@ -108,12 +201,27 @@ class StreamGobbler extends Thread {
 						if (progress != null) {
 							progress.progress(percentage / 100f);
 						}
+						continue;
 					} catch (NumberFormatException e) {
 						// we ignore this
 					}
 				}
-				if (line.length() > 5){
-					//System.out.println(line);
+				if (line.equals(SagaUtils.TIMES_MARKER)) {
+					timesLines = 0;
+					continue;
+				}
+				if (timesLines >= 0) {
+					long time = ExecutionMetrics.parseTimes(line);
+					if (time >= 0) {
+						if (++timesLines == 2) {
+							metrics.addChildCpuTime(time);
+						}
+						continue;
+					}
+				}
+				if (line.trim().length() > 0) {
+					metrics.addOutputLine(line);
+					LOGGER.fine(line);
 				}
 			}
 		} catch (final IOException ioe) {
@@ -0,0 +1,69 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.geotools.feature.NameImpl;
+import org.geotools.process.external.grass.GrassCatalog;
+import org.geotools.process.external.saga.SagaCatalog;
+import org.junit.Test;
+
+/**
+ * Checks that the SAGA and GRASS catalogs start faster when names are read
+ * from the index generated at build time than when all the descriptions are
+ * parsed, as factories used to do when they were created. Each case is run
+ * with new catalogs, so nothing is reused between runs. It is excluded from
+ * the default build.
+ */
+public class AlgorithmCatalogStressTest {
+
+	private static final int RUNS = 50;
+
+	@Test
+	public void testStartup() throws Exception {
+
+		File file = File.createTempFile("catalog", ".idx");
+		file.deleteOnExit();
+
+		// warm up class loading and the JIT
+		runIndexed();
+		runParsed(file);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			runIndexed();
+		}
+		long indexedTime = (System.nanoTime() - start) / RUNS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			runParsed(file);
+		}
+		long parsedTime = (System.nanoTime() - start) / RUNS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			new SagaCatalog().getProcess(new NameImpl("saga",
+					"slopeaspectcurvature"));
+		}
+		long firstUseTime = (System.nanoTime() - start) / RUNS;
+
+		assertTrue(indexedTime < parsedTime);
+		assertTrue(firstUseTime < parsedTime);
+
+	}
+
+	private void runIndexed() {
+		assertEquals(276, new SagaCatalog().getNames().size());
+		assertEquals(155, new GrassCatalog().getNames().size());
+	}
+
+	// writing the index parses the whole description file
+	private void runParsed(File file) throws Exception {
+		new SagaCatalog().writeIndex(file);
+		new GrassCatalog().writeIndex(file);
+	}
+
+}
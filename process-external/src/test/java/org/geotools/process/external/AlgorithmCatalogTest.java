@@ -0,0 +1,170 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.geotools.feature.NameImpl;
+import org.geotools.process.external.grass.GrassCatalog;
+import org.geotools.process.external.saga.SagaCatalog;
+import org.geotools.process.external.saga.SagaProcess;
+import org.geotools.process.external.saga.SagaProcessFactory;
+import org.junit.Test;
+import org.opengis.feature.type.Name;
+
+public class AlgorithmCatalogTest {
+
+	@Test
+	public void testNamesFromIndex() {
+
+		SagaCatalog catalog = new SagaCatalog();
+		assertEquals(276, catalog.getNames().size());
+		assertEquals("Slope, Aspect, Curvature", catalog
+				.getDescription(new NameImpl("saga", "slopeaspectcurvature")));
+		// the index is generated at build time, so nothing has been parsed
+		assertEquals(0, catalog.getParsedCount());
+
+		assertEquals(155, new GrassCatalog().getNames().size());
+
+	}
+
+	@Test
+	public void testLazyParsing() {
+
+		SagaCatalog catalog = new SagaCatalog();
+		Name name = new NameImpl("saga", "convergenceindex");
+		SagaProcess process = catalog.getProcess(name);
+		assertEquals("convergenceindex", process.getName());
+		assertTrue(process.getParameterInfo().containsKey("elevation"));
+		assertTrue(process == catalog.getProcess(name));
+		assertEquals(1, catalog.getParsedCount());
+
+		assertNull(catalog.getProcess(new NameImpl("saga", "unknown")));
+		assertNull(catalog.getProcess(new NameImpl("grass", "convergenceindex")));
+
+	}
+
+	@Test
+	public void testSharedParameters() {
+
+		SagaProcessFactory fact = new SagaProcessFactory();
+		Name name = new NameImpl("saga", "convergenceindex");
+		SagaProcess a = fact.create(name);
+		SagaProcess b = fact.create(name);
+		assertTrue(a != b);
+		assertEquals(a.getParameterInfo(), b.getParameterInfo());
+		try {
+			a.getParameterInfo().remove("elevation");
+			assertTrue(false);
+		} catch (UnsupportedOperationException e) {
+			// parameters are shared, so they cannot be changed
+		}
+
+	}
+
+	@Test
+	public void testIndexMatchesDescriptions() throws Exception {
+
+		SagaCatalog indexed = new SagaCatalog();
+		SagaCatalog scanned = new SagaCatalog();
+		File file = File.createTempFile("sagadesc", ".idx");
+		file.deleteOnExit();
+		scanned.writeIndex(file);
+		assertTrue(file.length() > 0);
+		assertEquals(indexed.getNames(), scanned.getNames());
+		for (Name name : indexed.getNames()) {
+			assertEquals(scanned.getDescription(name), indexed
+					.getDescription(name));
+			// blocks read through the index give the same processes
+			assertEquals(scanned.getProcess(name).getParameterInfo().keySet(),
+					indexed.getProcess(name).getParameterInfo().keySet());
+		}
+
+	}
+
+	@Test
+	public void testStaleIndex() throws Exception {
+
+		File folder = new File(Utils.createTempFolder("gtcatalogtest"));
+		byte[] desc = readResource("/sagadesc.txt");
+		write(new File(folder, "sagadesc.txt"), desc);
+		new FileCatalog(folder).writeIndex(new File(folder, "sagadesc.idx"));
+		FileCatalog catalog = new FileCatalog(folder);
+		assertEquals(276, catalog.getNames().size());
+		assertEquals(0, catalog.getParsedCount());
+
+		// an edit that keeps the length of the file, changing the case of
+		// the first letter of the first description
+		desc[0] = (byte) Character.toLowerCase((char) desc[0]);
+		write(new File(folder, "sagadesc.txt"), desc);
+		catalog = new FileCatalog(folder);
+		Name first = catalog.getNames().iterator().next();
+		assertEquals("accumulated Cost (Anisotropic)", catalog
+				.getDescription(first));
+		// the index did not match, so the file was parsed
+		assertEquals(276, catalog.getParsedCount());
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMainWithoutArguments() throws Exception {
+
+		AlgorithmCatalog.main(new String[0]);
+
+	}
+
+	private static byte[] readResource(String resource) throws IOException {
+		InputStream in = AlgorithmCatalogTest.class
+				.getResourceAsStream(resource);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	// A SAGA catalog reading its files from a folder instead of the classpath
+	private static class FileCatalog extends SagaCatalog {
+
+		private final File folder;
+
+		FileCatalog(File folder) {
+			this.folder = folder;
+		}
+
+		@Override
+		URL getResource(String resource) {
+			File file = new File(folder, resource);
+			try {
+				return file.exists() ? file.toURI().toURL() : null;
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException(e.getMessage());
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportCacheTest {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	private String folder;
+
+	@Before
+	public void setUp() {
+		folder = Utils.createTempFolder("gtexportcachetest");
+	}
+
+	@Test
+	public void testFingerprint() {
+
+		String key = ExportCache.getFingerprint(createGrid(5));
+		assertEquals(key, ExportCache.getFingerprint(createGrid(5)));
+		assertFalse(key.equals(ExportCache.getFingerprint(createGrid(6))));
+
+	}
+
+	@Test
+	public void testHitsAndMisses() throws IOException {
+
+		ExportCache cache = new ExportCache(folder, 1000);
+		assertNull(cache.acquire("a"));
+		ExportCache.Entry entry = cache.put("a", createFile(cache, 100));
+		cache.release(entry);
+		assertNotNull(cache.acquire("a"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(100, cache.getBytesSaved());
+
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+
+		ExportCache cache = new ExportCache(folder, 250);
+		ExportCache.Entry a = cache.put("a", createFile(cache, 100));
+		ExportCache.Entry b = cache.put("b", createFile(cache, 100));
+		cache.release(b);
+
+		// b is the only entry not in use, so it is evicted even though a is
+		// older
+		ExportCache.Entry c = cache.put("c", createFile(cache, 100));
+		assertTrue(new File(a.getFilename()).exists());
+		assertFalse(new File(b.getFilename()).exists());
+		assertEquals(200, cache.getSize());
+
+		// once released, the least recently used entry goes first
+		cache.release(a);
+		cache.release(c);
+		cache.put("d", createFile(cache, 100));
+		assertFalse(new File(a.getFilename()).exists());
+		assertTrue(new File(c.getFilename()).exists());
+		assertEquals(2, cache.getEntryCount());
+
+	}
+
+	@Test
+	public void testImportedLayers() throws IOException {
+
+		ExportCache cache = new ExportCache(folder, 1000);
+		ExportCache.Entry entry = cache.put("a", createFile(cache, 100));
+		assertNull(cache.getImportedLayers(entry, "saga"));
+		String imported = createFile(cache, 50);
+		cache.addImportedLayers(entry, "saga", new String[] { imported });
+		assertEquals(imported, cache.getImportedLayers(entry, "saga")[0]);
+		assertEquals(150, cache.getSize());
+
+	}
+
+	@Test
+	public void testEntryWithoutFile() throws IOException {
+
+		ExportCache cache = new ExportCache(folder, 1000);
+		ExportCache.Entry entry = cache.put("a", null);
+		cache.addImportedLayers(entry, "saga", new String[] { createFile(
+				cache, 50) });
+		assertNull(entry.getFilename());
+		assertEquals(50, cache.getSize());
+
+		// the first file set is kept, and later ones are deleted
+		String filename = createFile(cache, 100);
+		assertEquals(filename, cache.setFilename(entry, filename));
+		String other = createFile(cache, 100);
+		assertEquals(filename, cache.setFilename(entry, other));
+		assertFalse(new File(other).exists());
+		assertEquals(150, cache.getSize());
+
+	}
+
+	private String createFile(ExportCache cache, int size) throws IOException {
+		String filename = cache.getFilename("layer", "tif");
+		FileOutputStream out = new FileOutputStream(filename);
+		out.write(new byte[size]);
+		out.close();
+		return filename;
+	}
+
+	private static GridCoverage2D createGrid(float value) {
+		int SIZE = 100;
+		ReferencedEnvelope env;
+		env = new ReferencedEnvelope(0, SIZE, 0, SIZE,
+				DefaultGeographicCRS.WGS84);
+		float[][] data = new float[SIZE][SIZE];
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				data[x][y] = value;
+			}
+		}
+
+		return covFactory.create("coverage", data, env);
+	}
+
+}
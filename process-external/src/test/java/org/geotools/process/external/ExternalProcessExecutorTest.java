@@ -0,0 +1,108 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.process.ProcessException;
+import org.geotools.util.NullProgressListener;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalProcessExecutorTest {
+
+	private static final int JOBS = 8;
+	private static final int POOL_SIZE = 4;
+	private static final long JOB_MILLIS = 500;
+
+	@Before
+	public void setUp() {
+		// these tests use the sleep command as external process
+		Assume.assumeTrue(!Utils.isWindows());
+	}
+
+	@Test
+	public void testPoolSizeLimitsConcurrentJobs() throws Exception {
+
+		// with 4 jobs at a time, the 8 jobs run in two rounds. They would
+		// take JOBS * JOB_MILLIS if they were run one after the other
+		long elapsed = runJobs(new ExternalProcessExecutor(POOL_SIZE));
+		assertTrue(elapsed >= JOBS / POOL_SIZE * JOB_MILLIS);
+		assertTrue(elapsed < JOBS * JOB_MILLIS);
+
+	}
+
+	@Test
+	public void testTimeout() {
+
+		ExternalProcessExecutor executor = new ExternalProcessExecutor(1);
+		long start = System.currentTimeMillis();
+		try {
+			executor.execute(new ProcessBuilder("sleep", "10"), null, null, 200);
+			fail("Process should have timed out");
+		} catch (ProcessException e) {
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+		assertEquals(0, executor.getActiveCount());
+
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+
+		final ExternalProcessExecutor executor = new ExternalProcessExecutor(1);
+		final NullProgressListener progress = new NullProgressListener();
+		ExecutorService threads = Executors.newSingleThreadExecutor();
+		Future<Integer> future = threads.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return executor.execute(new ProcessBuilder("sleep", "10"),
+						null, progress, 0);
+			}
+		});
+		Thread.sleep(200);
+		long start = System.currentTimeMillis();
+		progress.setCanceled(true);
+		try {
+			future.get();
+			fail("Process should have been canceled");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof ProcessException);
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+		threads.shutdown();
+
+	}
+
+	// runs JOBS concurrent calls and returns the elapsed time in milliseconds
+	private long runJobs(final ExternalProcessExecutor executor)
+			throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(JOBS);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < JOBS; i++) {
+			futures.add(threads.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return executor.execute(new ProcessBuilder("sleep",
+							Double.toString(JOB_MILLIS / 1000.0)), null, null,
+							0);
+				}
+			}));
+		}
+		for (Future<Integer> future : futures) {
+			assertEquals(0, future.get().intValue());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		threads.shutdown();
+		executor.shutdown();
+		return elapsed;
+	}
+
+}
@@ -0,0 +1,212 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.data.Parameter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.SimpleInternationalString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.util.ProgressListener;
+
+public class ExternalProcessMetricsTest {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	private final List<ExecutionMetrics> recorded = Collections
+			.synchronizedList(new ArrayList<ExecutionMetrics>());
+
+	@Before
+	public void setUp() {
+		ExternalProcessMetrics metrics = new ExternalProcessMetrics();
+		metrics.addListener(new ExecutionListener() {
+			public void executionFinished(ExecutionMetrics metrics) {
+				recorded.add(metrics);
+			}
+		});
+		ExternalProcessMetrics.setInstance(metrics);
+	}
+
+	@After
+	public void tearDown() {
+		ExternalProcessMetrics.setInstance(null);
+	}
+
+	@Test
+	public void testExecutionIsRecorded() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createCoverage());
+		CopyProcess process = new CopyProcess(false);
+		process.execute(map, null);
+
+		assertEquals(1, recorded.size());
+		ExecutionMetrics metrics = recorded.get(0);
+		assertTrue(metrics == process.getMetrics());
+		assertEquals("copy", metrics.getAlgorithm());
+		assertFalse(metrics.isFailed());
+		assertTrue(metrics.getTotalTime() >= 0);
+		// the layer has been exported as a GeoTIFF
+		assertTrue(metrics.getBytesWritten() > 0);
+		assertEquals(0, metrics.getCacheHits());
+		assertEquals(Arrays.asList(0), metrics.getExitCodes());
+
+		AlgorithmMetrics algorithm = ExternalProcessMetrics.getInstance()
+				.getAlgorithmMetrics("copy");
+		assertEquals(1, algorithm.getExecutionCount());
+		assertEquals(0, algorithm.getFailureCount());
+		assertEquals(metrics.getBytesWritten(), algorithm.getBytesWritten());
+
+	}
+
+	@Test
+	public void testFailureIsRecorded() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createCoverage());
+		try {
+			new CopyProcess(true).execute(map, null);
+			fail();
+		} catch (ProcessException e) {
+			// expected
+		}
+
+		assertEquals(1, recorded.size());
+		ExecutionMetrics metrics = recorded.get(0);
+		assertTrue(metrics.isFailed());
+		assertEquals("copy exited with code 2", metrics.getError());
+		assertEquals(Arrays.asList(2), metrics.getExitCodes());
+		AlgorithmMetrics algorithm = ExternalProcessMetrics.getInstance()
+				.getAlgorithmMetrics("copy");
+		assertEquals(1, algorithm.getFailureCount());
+		assertEquals(2, algorithm.getLastExitCode());
+
+	}
+
+	@Test
+	public void testParseTimes() {
+
+		assertEquals(1560, ExecutionMetrics.parseTimes("0m1.250s 0m0.310s"));
+		assertEquals(61000, ExecutionMetrics.parseTimes("1m0,500s 0m0,500s"));
+		assertEquals(-1, ExecutionMetrics.parseTimes("r.slope.aspect done"));
+
+	}
+
+	@Test
+	public void testListLayerFiles() throws Exception {
+
+		String folder = Utils.createTempFolder("gtmetrics");
+		String[] names = new String[] { "vector1.shp", "vector1.dbf",
+				"vector1.shx", "vector10.shp", "raster2.tif",
+				"raster2.tif.aux.xml" };
+		for (int i = 0; i < names.length; i++) {
+			new File(folder, names[i]).createNewFile();
+		}
+		File[] files = ExternalProcess.listLayerFiles(folder, Arrays.asList(
+				folder + File.separator + "vector1.shp", "raster2.tif"));
+		List<String> found = new ArrayList<String>();
+		for (int i = 0; i < files.length; i++) {
+			found.add(files[i].getName());
+		}
+		Collections.sort(found);
+		assertEquals(Arrays.asList("raster2.tif", "raster2.tif.aux.xml",
+				"vector1.dbf", "vector1.shp", "vector1.shx"), found);
+
+	}
+
+	private static GridCoverage2D createCoverage() {
+		float[][] data = new float[20][20];
+		for (int y = 0; y < 20; y++) {
+			for (int x = 0; x < 20; x++) {
+				data[y][x] = (float) Math.random();
+			}
+		}
+		return covFactory.create("coverage", data, new ReferencedEnvelope(0,
+				20, 0, 20, DefaultGeographicCRS.WGS84));
+	}
+
+	// Exports its input as a GeoTIFF and returns it. The batch job is not
+	// run, it just records its exit code
+	private static class CopyProcess extends ExternalProcess {
+
+		private final boolean fails;
+		private GridCoverage2D input;
+
+		CopyProcess(boolean fails) {
+			this.fails = fails;
+			name = "copy";
+			description = "Copy";
+			inputs = new HashMap<String, Parameter<?>>();
+			outputs = new HashMap<String, Parameter<?>>();
+			Parameter param = new Parameter("input", GridCoverage2D.class,
+					new SimpleInternationalString("input"),
+					new SimpleInternationalString("input"));
+			inputs.put(param.key, param);
+			param = new Parameter("output", GridCoverage2D.class,
+					new SimpleInternationalString("output"),
+					new SimpleInternationalString("output"));
+			outputs.put(param.key, param);
+		}
+
+		@Override
+		public ExternalProcess newInstance() {
+			return new CopyProcess(fails);
+		}
+
+		@Override
+		public void deleteExportedLayers() {
+			isAppSpecificCleared = true;
+		}
+
+		@Override
+		protected Map<String, Object> _execute(Map<String, Object> params,
+				ProgressListener progress) {
+			return runSteps(params, progress);
+		}
+
+		@Override
+		protected List<String> prepareStep(Map<String, Object> params,
+				ProgressListener progress) {
+			input = (GridCoverage2D) params.get("input");
+			return Collections.singletonList("copy " + saveRasterLayer(input));
+		}
+
+		@Override
+		protected void runBatch(List<String> commands,
+				ProgressListener progress) {
+			int exitCode = fails ? 2 : 0;
+			metrics.addExitCode(exitCode);
+			if (exitCode != 0) {
+				throw new ProcessException(name + " exited with code "
+						+ exitCode);
+			}
+		}
+
+		@Override
+		protected Map<String, Object> readStepResults() {
+			Map<String, Object> results = new HashMap<String, Object>();
+			results.put("output", input);
+			return results;
+		}
+
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.net.URL;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureCollections;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class FileSourcesTest {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	@Test
+	public void testFileBasedCoverage() throws Exception {
+
+		URL url = this.getClass().getResource("/dem25.tif");
+		File file = new File(url.getFile());
+		GridCoverage2D gc = FileSources.getCoverage(file);
+		assertEquals(file.getAbsoluteFile(), FileSources.getSourceFile(gc));
+
+	}
+
+	@Test
+	public void testOnlyShapefilesAreVectorSources() throws Exception {
+
+		FeatureCollection fc = FeatureCollections.newCollection();
+		File csv = new File(Utils.getTempFilename("points", "csv"));
+		csv.createNewFile();
+		FileSources.register(fc, csv);
+		// external apps would read it as a shapefile
+		assertNull(FileSources.getSourceFile(fc));
+
+		File shp = new File(Utils.getTempFilename("points", "shp"));
+		shp.createNewFile();
+		FileSources.register(fc, shp);
+		assertEquals(shp.getAbsoluteFile(), FileSources.getSourceFile(fc));
+		csv.delete();
+		shp.delete();
+
+	}
+
+	@Test
+	public void testInMemoryCoverage() {
+
+		ReferencedEnvelope env = new ReferencedEnvelope(0, 10, 0, 10,
+				DefaultGeographicCRS.WGS84);
+		GridCoverage2D gc = covFactory.create("coverage", new float[10][10],
+				env);
+		assertNull(FileSources.getSourceFile(gc));
+
+	}
+
+}
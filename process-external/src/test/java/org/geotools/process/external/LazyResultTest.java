@@ -0,0 +1,78 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.junit.Test;
+
+public class LazyResultTest {
+
+	@Test
+	public void testRasterWindow() {
+
+		URL url = this.getClass().getResource("/dem25.tif");
+		File file = new File(Utils.getTempFilename("dem", "tif"));
+		copy(new File(url.getFile()), file);
+		RasterResult result = new RasterResult(file.getPath());
+		GridCoverage2D gc = result.getCoverage();
+
+		// a window with a quarter of the original envelope
+		ReferencedEnvelope env = new ReferencedEnvelope(gc.getEnvelope2D());
+		ReferencedEnvelope window = new ReferencedEnvelope(env.getMinX(), env
+				.getMinX()
+				+ env.getWidth() / 2, env.getMinY(), env.getMinY()
+				+ env.getHeight() / 2, env.getCoordinateReferenceSystem());
+		GridCoverage2D part = result.getCoverage(window);
+		int width = gc.getRenderedImage().getWidth();
+		assertEquals(width / 2, part.getRenderedImage().getWidth(), 1);
+
+		result.dispose();
+		// the handle does not own the file unless it is told so
+		assertTrue(file.exists());
+		file.delete();
+
+	}
+
+	@Test
+	public void testFileIsDeletedOnDispose() {
+
+		URL url = this.getClass().getResource("/dem25.tif");
+		File file = new File(Utils.getTempFilename("dem", "tif"));
+		copy(new File(url.getFile()), file);
+		RasterResult result = new RasterResult(file.getPath());
+		result.setDeleteOnDispose(true);
+		assertTrue(result.getCoverage() != null);
+		result.dispose();
+		assertFalse(file.exists());
+
+	}
+
+	private static void copy(File from, File to) {
+		try {
+			InputStream in = new FileInputStream(from);
+			OutputStream out = new FileOutputStream(to);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			in.close();
+			out.close();
+		} catch (IOException e) {
+			throw new ProcessException(e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.Parameter;
+import org.geotools.process.ProcessException;
+import org.geotools.process.external.ProcessChain.Step;
+import org.geotools.util.KVP;
+import org.geotools.util.SimpleInternationalString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.util.ProgressListener;
+
+public class ProcessChainTest {
+
+	@Before
+	public void setUp() {
+		SumProcess.batches.clear();
+	}
+
+	@Test
+	public void testBranches() {
+
+		AppSpecificProcessGroup pg = new AppSpecificProcessGroup();
+		ProcessChain chain = pg.createChain();
+		Step a = chain.add(new SumProcess("a"), new KVP("a", 1, "b", 2));
+		Step b = chain.add(new SumProcess("b"), new KVP("a", a.getOutput("sum"),
+				"b", 3));
+		Step c = chain.add(new SumProcess("c"), new KVP("a", 4, "b", 5));
+		Step d = chain.add(new SumProcess("d"), new KVP("a", b.getOutput("sum"),
+				"b", c.getOutput("sum")));
+		chain.execute(null);
+		pg.finish();
+
+		assertEquals(15, d.getResults().get("sum"));
+		// outputs used by later steps are not returned
+		assertFalse(a.getResults().containsKey("sum"));
+		assertFalse(c.getResults().containsKey("sum"));
+		// a and b are run in the same batch, and c in parallel to them
+		assertEquals(3, SumProcess.batches.size());
+		assertTrue(SumProcess.batches.contains(Collections
+				.singletonList("c")));
+
+	}
+
+	@Test
+	public void testRequestedOutputs() {
+
+		AppSpecificProcessGroup pg = new AppSpecificProcessGroup();
+		ProcessChain chain = pg.createChain();
+		Step a = chain.add(new SumProcess("a"), new KVP("a", 1, "b", 2,
+				"outputs", "sum"));
+		Step b = chain.add(new SumProcess("b"), new KVP("a", a.getOutput("sum"),
+				"b", 3));
+		chain.execute(null);
+		pg.finish();
+
+		assertEquals(3, a.getResults().get("sum"));
+		assertEquals(6, b.getResults().get("sum"));
+		assertEquals(1, SumProcess.batches.size());
+
+	}
+
+	@Test
+	public void testSingleBatch() {
+
+		AppSpecificProcessGroup pg = new AppSpecificProcessGroup() {
+			public boolean allowsConcurrentBatches() {
+				return false;
+			}
+		};
+		ProcessChain chain = pg.createChain();
+		chain.add(new SumProcess("a"), new KVP("a", 1, "b", 2));
+		Step b = chain.add(new SumProcess("b"), new KVP("a", 3, "b", 4));
+		chain.execute(null);
+		pg.finish();
+
+		assertEquals(7, b.getResults().get("sum"));
+		assertEquals(1, SumProcess.batches.size());
+		assertEquals(2, SumProcess.batches.get(0).size());
+
+	}
+
+	@Test
+	public void testFailureCancelsBranches() {
+
+		AppSpecificProcessGroup pg = new AppSpecificProcessGroup();
+		ProcessChain chain = pg.createChain();
+		chain.add(new SumProcess("slow"), new KVP("a", 1, "b", 2));
+		chain.add(new SumProcess("fail"), new KVP("a", 3, "b", 4));
+		try {
+			chain.execute(null);
+			fail("The chain did not fail");
+		} catch (ProcessException e) {
+			assertEquals("fail", e.getMessage());
+		}
+		pg.finish();
+
+		// the slow branch was canceled, and had finished when the chain
+		// failed
+		assertEquals(1, SumProcess.batches.size());
+		assertEquals("slow-canceled", SumProcess.batches.get(0).get(0));
+
+	}
+
+	@Test(expected = ProcessException.class)
+	public void testOutputOfOtherChain() {
+
+		AppSpecificProcessGroup pg = new AppSpecificProcessGroup();
+		Step a = pg.createChain().add(new SumProcess("a"),
+				new KVP("a", 1, "b", 2));
+		pg.createChain().add(new SumProcess("b"),
+				new KVP("a", a.getOutput("sum"), "b", 3));
+
+	}
+
+	// Adds two numbers. Commands are "label:output=a+b", where a, b and
+	// output are layers, stored in a map instead of files. Batches are
+	// recorded as the labels of the processes they run
+	private static class SumProcess extends ExternalProcess {
+
+		static final List<List<String>> batches = Collections
+				.synchronizedList(new ArrayList<List<String>>());
+		static final Map<String, Integer> layers = Collections
+				.synchronizedMap(new HashMap<String, Integer>());
+		static int count = 0;
+
+		private final String label;
+		private String output;
+
+		SumProcess(String label) {
+			this.label = label;
+			name = "sum";
+			description = "Sum";
+			inputs = new HashMap<String, Parameter<?>>();
+			outputs = new HashMap<String, Parameter<?>>();
+			Parameter param = new Parameter("a", Integer.class,
+					new SimpleInternationalString("a"),
+					new SimpleInternationalString("a"));
+			inputs.put(param.key, param);
+			param = new Parameter("b", Integer.class,
+					new SimpleInternationalString("b"),
+					new SimpleInternationalString("b"));
+			inputs.put(param.key, param);
+			param = new Parameter("sum", Integer.class,
+					new SimpleInternationalString("sum"),
+					new SimpleInternationalString("sum"));
+			outputs.put(param.key, param);
+			addResultParameters();
+		}
+
+		@Override
+		public ExternalProcess newInstance() {
+			return new SumProcess(label);
+		}
+
+		@Override
+		public void deleteExportedLayers() {
+			isAppSpecificCleared = true;
+		}
+
+		@Override
+		protected Map<String, Object> _execute(Map<String, Object> params,
+				ProgressListener progress) {
+			List<String> commands = prepareStep(params, progress);
+			runBatch(commands, progress);
+			return readStepResults();
+		}
+
+		@Override
+		protected List<String> prepareStep(Map<String, Object> params,
+				ProgressListener progress) {
+			exportedLayers = new HashMap<Object, String[]>();
+			String a = export(params.get("a"));
+			String b = export(params.get("b"));
+			output = newLayer();
+			return Collections.singletonList(label + ":" + output + "=" + a
+					+ "+" + b);
+		}
+
+		@Override
+		protected String[] getOutputLayerFilenames(String key) {
+			return new String[] { output };
+		}
+
+		@Override
+		protected void runBatch(List<String> commands,
+				ProgressListener progress) {
+			if (commands.get(0).startsWith("fail:")) {
+				throw new ProcessException("fail");
+			}
+			if (commands.get(0).startsWith("slow:")) {
+				// waits to be canceled, up to 10 seconds
+				long deadline = System.currentTimeMillis() + 10000;
+				while (!progress.isCanceled()
+						&& System.currentTimeMillis() < deadline) {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				if (progress.isCanceled()) {
+					batches.add(Collections.singletonList("slow-canceled"));
+				}
+				throw new ProcessException("canceled");
+			}
+			List<String> batch = new ArrayList<String>();
+			for (String command : commands) {
+				String[] tokens = command.split("[:=+]");
+				layers.put(tokens[1], layers.get(tokens[2])
+						+ layers.get(tokens[3]));
+				batch.add(tokens[0]);
+			}
+			batches.add(batch);
+		}
+
+		@Override
+		protected Map<String, Object> readStepResults() {
+			Map<String, Object> results = new HashMap<String, Object>();
+			if (isRequested("sum")) {
+				results.put("sum", layers.get(output));
+			}
+			return results;
+		}
+
+		private String export(Object value) {
+			if (addGroupLayer(value)) {
+				return exportedLayers.get(value)[0];
+			}
+			String layer = newLayer();
+			layers.put(layer, (Integer) value);
+			return layer;
+		}
+
+		private static synchronized String newLayer() {
+			return "layer" + count++;
+		}
+
+	}
+
+}
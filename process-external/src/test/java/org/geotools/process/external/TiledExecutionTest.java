@@ -0,0 +1,271 @@
+package org.geotools.process.external;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.data.Parameter;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessException;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.SimpleInternationalString;
+import org.junit.Test;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.util.ProgressListener;
+
+public class TiledExecutionTest {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	@Test
+	public void testTiledResultMatchesWholeLayer() {
+
+		GridCoverage2D gc = createRandom(250, 170);
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", gc);
+		Map<String, Object> whole = new MaxFilterProcess().execute(map, null);
+
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, 64);
+		Map<String, Object> tiled = new MaxFilterProcess().execute(map, null);
+
+		Raster expected = ((GridCoverage2D) whole.get("output"))
+				.getRenderedImage().getData();
+		GridCoverage2D result = (GridCoverage2D) tiled.get("output");
+		Raster data = result.getRenderedImage().getData();
+		assertEquals(expected.getWidth(), data.getWidth());
+		assertEquals(expected.getHeight(), data.getHeight());
+		for (int y = 0; y < data.getHeight(); y++) {
+			for (int x = 0; x < data.getWidth(); x++) {
+				assertEquals(expected.getSampleFloat(x, y, 0), data
+						.getSampleFloat(x, y, 0), 0f);
+			}
+		}
+		assertTrue(result.getEnvelope2D().equals(gc.getEnvelope2D()));
+
+	}
+
+	@Test
+	public void testTiledExecutionIsFinished() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createRandom(150, 100));
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, 64);
+		AlgorithmMetrics algorithm = ExternalProcessMetrics.getInstance()
+				.getAlgorithmMetrics("max");
+		long count = algorithm.getExecutionCount();
+		MaxFilterProcess process = new MaxFilterProcess();
+		process.execute(map, null);
+
+		// the metrics of the whole execution are recorded along with those
+		// of its 6 tiles, and its temp folder is removed
+		assertEquals(count + 7, algorithm.getExecutionCount());
+		assertTrue(process.getMetrics().getTotalTime() >= 0);
+		assertFalse(new File(process.tempLayersFolder).exists());
+
+	}
+
+	@Test
+	public void testTilesAreNotCached() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createRandom(150, 100));
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, 64);
+		int count = MaxFilterProcess.nCachedExecutions.get();
+		new MaxFilterProcess().execute(map, null);
+		assertEquals(count, MaxFilterProcess.nCachedExecutions.get());
+
+	}
+
+	@Test
+	public void testTileResultsAreDeleted() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createRandom(150, 100));
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, 64);
+		MaxFilterProcess.resultFiles.clear();
+		new MaxFilterProcess().execute(map, null);
+
+		assertEquals(6, MaxFilterProcess.resultFiles.size());
+		for (File file : MaxFilterProcess.resultFiles) {
+			assertFalse(file.exists());
+			assertFalse(file.getParentFile().exists());
+		}
+
+	}
+
+	@Test(expected = ProcessException.class)
+	public void testWrongTileSize() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createRandom(150, 100));
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, "large");
+		MaxFilterProcess process = new MaxFilterProcess();
+		try {
+			process.execute(map, null);
+		} finally {
+			assertNotNull(process.getMetrics().getError());
+			assertFalse(new File(process.tempLayersFolder).exists());
+		}
+
+	}
+
+	@Test
+	public void testHaloFromParameter() {
+
+		MaxFilterProcess process = new MaxFilterProcess();
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("radius", 3);
+		process.setTileSafe("TileSafe|RADIUS");
+		assertEquals(3, process.getTileHalo(map));
+		process.setTileSafe("TileSafe|RADIUS+1");
+		assertEquals(4, process.getTileHalo(map));
+
+	}
+
+	@Test
+	public void testCannotRunSmallLayers() {
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("input", createRandom(50, 50));
+		TiledExecution tiled = new TiledExecution(new MaxFilterProcess(), 64, 1);
+		assertFalse(tiled.canRun(map));
+		map.put("input", createRandom(100, 50));
+		assertTrue(tiled.canRun(map));
+
+	}
+
+	@Test
+	public void testCropLatitudeFirst() throws Exception {
+
+		// EPSG:4326 has the latitude as its first axis
+		CoordinateReferenceSystem crs = CRS.decode("EPSG:4326");
+		GeneralEnvelope env = new GeneralEnvelope(crs);
+		env.setRange(0, 0, 100);
+		env.setRange(1, 0, 150);
+		float[][] data = new float[100][150];
+		GridCoverage2D gc = covFactory.create("coverage", data, env);
+		TiledExecution tiled = new TiledExecution(new MaxFilterProcess(), 64, 1);
+
+		Envelope tile = tiled.crop(gc, new Rectangle(0, 0, 64, 64))
+				.getEnvelope();
+		assertEquals(36, tile.getMinimum(0), 1e-6);
+		assertEquals(100, tile.getMaximum(0), 1e-6);
+		assertEquals(0, tile.getMinimum(1), 1e-6);
+		assertEquals(64, tile.getMaximum(1), 1e-6);
+
+	}
+
+	private static GridCoverage2D createRandom(int width, int height) {
+		ReferencedEnvelope env = new ReferencedEnvelope(0, width, 0, height,
+				DefaultGeographicCRS.WGS84);
+		float[][] data = new float[height][width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				data[y][x] = (float) Math.random();
+			}
+		}
+		return covFactory.create("coverage", data, env);
+	}
+
+	// A 3x3 maximum filter, computed in Java instead of an external app
+	private static class MaxFilterProcess extends ExternalProcess {
+
+		// executions that would have used the export cache
+		static final AtomicInteger nCachedExecutions = new AtomicInteger();
+		// the files results would have been read from
+		static final List<File> resultFiles = Collections
+				.synchronizedList(new ArrayList<File>());
+		private File resultFile;
+
+		MaxFilterProcess() {
+			name = "max";
+			description = "3x3 maximum filter";
+			inputs = new HashMap<String, Parameter<?>>();
+			outputs = new HashMap<String, Parameter<?>>();
+			Parameter param = new Parameter("input", GridCoverage2D.class,
+					new SimpleInternationalString("input"),
+					new SimpleInternationalString("input"));
+			inputs.put(param.key, param);
+			param = new Parameter("output", GridCoverage2D.class,
+					new SimpleInternationalString("output"),
+					new SimpleInternationalString("output"));
+			outputs.put(param.key, param);
+			setTileSafe("TileSafe|1");
+		}
+
+		@Override
+		public ExternalProcess newInstance() {
+			return new MaxFilterProcess();
+		}
+
+		@Override
+		public void deleteExportedLayers() {
+			isAppSpecificCleared = true;
+		}
+
+		@Override
+		protected Collection<String> getResultFilenames() {
+			return Collections.singletonList(resultFile.getPath());
+		}
+
+		@Override
+		protected Map<String, Object> _execute(Map<String, Object> params,
+				ProgressListener progress) {
+			if (useExportCache) {
+				nCachedExecutions.incrementAndGet();
+			}
+			resultFile = new File(tempLayersFolder, "output.dat");
+			try {
+				resultFile.createNewFile();
+			} catch (IOException e) {
+				throw new ProcessException(e.getMessage());
+			}
+			resultFiles.add(resultFile);
+			GridCoverage2D gc = (GridCoverage2D) params.get("input");
+			Raster data = gc.getRenderedImage().getData();
+			int width = data.getWidth();
+			int height = data.getHeight();
+			float[][] result = new float[height][width];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float max = Float.NEGATIVE_INFINITY;
+					for (int j = Math.max(0, y - 1); j <= Math.min(height - 1,
+							y + 1); j++) {
+						for (int i = Math.max(0, x - 1); i <= Math.min(
+								width - 1, x + 1); i++) {
+							max = Math.max(max, data.getSampleFloat(i
+									+ data.getMinX(), j + data.getMinY(), 0));
+						}
+					}
+					result[y][x] = max;
+				}
+			}
+			HashMap<String, Object> results = new HashMap<String, Object>();
+			results.put("output", covFactory.create("output", result, gc
+					.getEnvelope2D()));
+			return results;
+		}
+
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.geotools.process.external.grass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.geotools.process.ProcessException;
+import org.geotools.process.external.ExecutionMetrics;
+import org.geotools.process.external.GrassProcessGroup;
+import org.geotools.process.external.Utils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class GrassSessionPoolTest {
+
+	@After
+	public void tearDown() {
+		GrassSessionPool.setInstance(null);
+	}
+
+	@Test
+	public void testAcquireTimesOut() {
+
+		Assume.assumeTrue(!Utils.isWindows());
+		GrassSessionPool pool = new GrassSessionPool(1, 0);
+		GrassSession session = pool.acquire(false, null, 0);
+		Assume.assumeNotNull(session);
+		try {
+			long start = System.currentTimeMillis();
+			try {
+				pool.acquire(false, null, 200);
+				fail("A second session was started");
+			} catch (ProcessException e) {
+				// the only session is busy
+			}
+			assertTrue(System.currentTimeMillis() - start >= 200);
+		} finally {
+			pool.release(session);
+		}
+		assertEquals(1, pool.getSessionCount());
+
+	}
+
+	@Test
+	public void testRunStopsAtFirstFailure() {
+
+		Assume.assumeTrue(!Utils.isWindows());
+		GrassSessionPool pool = new GrassSessionPool(1, 0);
+		GrassSession session = pool.acquire(false, null, 0);
+		Assume.assumeNotNull(session);
+		try {
+			ExecutionMetrics metrics = new ExecutionMetrics("grass");
+			int status = session.run(Arrays.asList("sh -c 'exit 3'",
+					"echo notrun"), null, 0, metrics);
+			assertEquals(3, status);
+			assertFalse(metrics.getOutputText().contains("notrun"));
+			// the next job runs normally
+			assertEquals(0, session.run(Arrays.asList("true"), null, 0));
+		} finally {
+			pool.release(session);
+		}
+
+	}
+
+	@Test
+	public void testGroupDropsDeadSession() {
+
+		Assume.assumeTrue(!Utils.isWindows());
+		GrassSessionPool pool = new GrassSessionPool(1, 0);
+		GrassSessionPool.setInstance(pool);
+		GrassSession session = pool.acquire(false, null, 0);
+		Assume.assumeNotNull(session);
+		GrassProcessGroup group = new GrassProcessGroup();
+		group.setGisdbase(session.getGisdbase());
+		group.setSession(session);
+
+		// as if it had been killed on a timeout
+		session.close();
+		assertNull(group.getGisdbase());
+		assertNull(group.getSession());
+		// its place in the pool is free
+		assertEquals(0, pool.getSessionCount());
+
+	}
+
+}
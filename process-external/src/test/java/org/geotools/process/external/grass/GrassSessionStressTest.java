@@ -0,0 +1,97 @@
+package org.geotools.process.external.grass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.Process;
+import org.geotools.process.external.Utils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks that small GRASS jobs run faster with warm sessions than without
+ * them. It takes a while, so it is excluded from the default build.
+ */
+public class GrassSessionStressTest {
+
+	private static final int RUNS = 50;
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	@After
+	public void tearDown() {
+		GrassSessionPool.setInstance(null);
+	}
+
+	@Test
+	public void testWarmSessionLatency() {
+
+		Assume.assumeTrue(!Utils.isWindows());
+		GridCoverage2D gc = createFlat();
+
+		GrassSessionPool.setInstance(new GrassSessionPool(0, 0));
+		long[] cold = runJobs(gc);
+		GrassSessionPool.setInstance(new GrassSessionPool(1, 32));
+		// the first job starts the session
+		runJobs(gc, 1);
+		long[] warm = runJobs(gc);
+		assertEquals(1, GrassSessionPool.getInstance().getSessionCount());
+
+		assertTrue(percentile(warm, 50) < percentile(cold, 50));
+		assertTrue(percentile(warm, 99) < percentile(cold, 99));
+
+	}
+
+	private long[] runJobs(GridCoverage2D gc) {
+		return runJobs(gc, RUNS);
+	}
+
+	private long[] runJobs(GridCoverage2D gc, int runs) {
+		GrassProcessFactory fact = new GrassProcessFactory();
+		NameImpl name = new NameImpl("grass", "r.slope.aspect");
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			Process proc = fact.create(name);
+			HashMap<String, Object> map = new HashMap<String, Object>();
+			map.put("input", gc);
+			long start = System.currentTimeMillis();
+			Map<String, Object> result = proc.execute(map, null);
+			times[i] = System.currentTimeMillis() - start;
+			assertTrue(result.get("slope") instanceof GridCoverage2D);
+		}
+		return times;
+	}
+
+	private static long percentile(long[] times, int percentile) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)];
+	}
+
+	private static GridCoverage2D createFlat() {
+		int SIZE = 100;
+		ReferencedEnvelope env = new ReferencedEnvelope(0, SIZE, 0, SIZE,
+				DefaultGeographicCRS.WGS84);
+		float[][] data = new float[SIZE][SIZE];
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				data[x][y] = 5;
+			}
+		}
+		return covFactory.create("coverage", data, env);
+	}
+
+}
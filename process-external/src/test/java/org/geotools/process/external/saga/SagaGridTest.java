@@ -0,0 +1,177 @@
+package org.geotools.process.external.saga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.external.Utils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class SagaGridTest {
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		GridCoverage2D gc = createCoverage(120, 80, 10);
+		String filename = Utils.getTempFilename("grid", "sgrd");
+		String[] filenames = SagaGridWriter.write(gc, filename);
+		assertEquals(1, filenames.length);
+		assertTrue(new File(SagaGridWriter.getDataFilename(filename)).exists());
+
+		GridCoverage2D read = SagaGridReader.read(new File(filename),
+				DefaultGeographicCRS.WGS84);
+		Raster expected = gc.getRenderedImage().getData();
+		Raster data = read.getRenderedImage().getData();
+		assertEquals(120, data.getWidth());
+		assertEquals(80, data.getHeight());
+		for (int y = 0; y < 80; y++) {
+			for (int x = 0; x < 120; x++) {
+				assertEquals(expected.getSampleFloat(x, y, 0), data
+						.getSampleFloat(x, y, 0), 0f);
+			}
+		}
+		assertEquals(gc.getEnvelope2D().getMinX(), read.getEnvelope2D()
+				.getMinX(), 1e-9);
+		assertEquals(gc.getEnvelope2D().getMaxY(), read.getEnvelope2D()
+				.getMaxY(), 1e-9);
+
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+
+		GridCoverage2D gc = createCoverage(120, 80, 10);
+		String filename = Utils.getTempFilename("grid", "sgrd");
+		SagaGridWriter.write(gc, filename);
+
+		// cells 20 to 49 in x, and rows 10 to 29 from the top
+		ReferencedEnvelope window = new ReferencedEnvelope(200, 500, 500, 700,
+				DefaultGeographicCRS.WGS84);
+		GridCoverage2D read = SagaGridReader.read(new File(filename),
+				DefaultGeographicCRS.WGS84, window);
+		Raster expected = gc.getRenderedImage().getData();
+		Raster data = read.getRenderedImage().getData();
+		assertEquals(30, data.getWidth());
+		assertEquals(20, data.getHeight());
+		for (int y = 0; y < 20; y++) {
+			for (int x = 0; x < 30; x++) {
+				assertEquals(expected.getSampleFloat(x + 20, y + 10, 0), data
+						.getSampleFloat(x + data.getMinX(), y + data.getMinY(),
+								0), 0f);
+			}
+		}
+
+	}
+
+	@Test
+	public void testStrips() throws Exception {
+
+		GridCoverage2D gc = createCoverage(120, 80, 10);
+		String filename = Utils.getTempFilename("grid", "sgrd");
+		SagaGridWriter.write(gc, filename);
+
+		// strips of 7 rows, so the last one is shorter
+		GridCoverage2D read = SagaGridReader.read(new File(filename),
+				DefaultGeographicCRS.WGS84, null, 7 * 120 * 4);
+		Raster expected = gc.getRenderedImage().getData();
+		Raster data = read.getRenderedImage().getData();
+		for (int y = 0; y < 80; y++) {
+			for (int x = 0; x < 120; x++) {
+				assertEquals(expected.getSampleFloat(x, y, 0), data
+						.getSampleFloat(x, y, 0), 0f);
+			}
+		}
+
+	}
+
+	@Test
+	public void testZFactor() throws Exception {
+
+		GridCoverage2D gc = createCoverage(20, 10, 1);
+		String filename = Utils.getTempFilename("grid", "sgrd");
+		SagaGridWriter.write(gc, filename);
+		BufferedWriter out = new BufferedWriter(new FileWriter(filename, true));
+		out.write("Z_FACTOR\t= 0.5\n");
+		out.close();
+
+		GridCoverage2D read = SagaGridReader.read(new File(filename),
+				DefaultGeographicCRS.WGS84);
+		Raster expected = gc.getRenderedImage().getData();
+		Raster data = read.getRenderedImage().getData();
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 20; x++) {
+				assertEquals(expected.getSampleDouble(x, y, 0) * 0.5, data
+						.getSampleDouble(x, y, 0), 0);
+			}
+		}
+
+	}
+
+	@Test
+	public void testNoData() throws Exception {
+
+		float[][] cells = new float[10][10];
+		cells[3][4] = Float.NaN;
+		GridCoverage2D gc = covFactory.create("nodata", cells,
+				new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+		String filename = Utils.getTempFilename("grid", "sgrd");
+		SagaGridWriter.write(gc, filename);
+		GridCoverage2D read = SagaGridReader.read(new File(filename),
+				DefaultGeographicCRS.WGS84);
+		assertEquals(SagaGridWriter.DEFAULT_NODATA, read.getRenderedImage()
+				.getData().getSampleDouble(4, 3, 0), 0);
+		assertEquals(new Double(SagaGridWriter.DEFAULT_NODATA), read
+				.getProperty(SagaGridReader.NODATA_PROPERTY));
+
+	}
+
+	@Test
+	public void testMultiBandNames() {
+
+		String[] filenames = SagaGridWriter.getFilenames("/tmp/rgb.sgrd", 3);
+		assertEquals(3, filenames.length);
+		assertEquals("/tmp/rgb_0000.sgrd", filenames[0]);
+		assertEquals("/tmp/rgb_0002.sgrd", filenames[2]);
+
+	}
+
+	@Test
+	public void testCannotWriteRectangularCells() {
+
+		GridCoverage2D gc = covFactory.create("rect", new float[10][10],
+				new ReferencedEnvelope(0, 10, 0, 20, DefaultGeographicCRS.WGS84));
+		assertFalse(SagaGridWriter.canWrite(gc));
+		assertEquals(DataBuffer.TYPE_FLOAT, gc.getRenderedImage()
+				.getSampleModel().getDataType());
+
+	}
+
+	// a coverage with cells of the given size, and a different value in each
+	private static GridCoverage2D createCoverage(int width, int height,
+			double cellsize) {
+		ReferencedEnvelope env = new ReferencedEnvelope(0, width * cellsize,
+				0, height * cellsize, DefaultGeographicCRS.WGS84);
+		float[][] data = new float[height][width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				data[y][x] = y * width + x;
+			}
+		}
+		return covFactory.create("coverage", data, env);
+	}
+
+}
@@ -1,8 +1,14 @@
 package org.geotools.process.external.saga;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.image.Raster;
+import java.io.File;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -10,11 +16,21 @@ import java.util.Set;
 import org.geotools.coverage.CoverageFactoryFinder;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.ViewType;
 import org.geotools.feature.NameImpl;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.Process;
 import org.geotools.process.ProcessFactory;
 import org.geotools.process.Processors;
+import org.geotools.process.external.ExportCache;
+import org.geotools.process.external.ExternalProcess;
+import org.geotools.process.external.FileSources;
+import org.geotools.process.external.ProcessChain;
+import org.geotools.process.external.ProcessChain.Step;
+import org.geotools.process.external.RasterResult;
+import org.geotools.process.external.SagaProcessGroup;
+import org.geotools.process.external.Utils;
+import org.geotools.process.external.grass.GrassProcessFactory;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
 import org.opengis.feature.type.Name;
@@ -32,7 +48,7 @@ public class SagaRasterTest {
 
 	@Test
 	public void testAlgorithmsCount() {
-		assertEquals(fact.processes.size(), COUNT);
+		assertEquals(fact.getNames().size(), COUNT);
 	}
 
 	@Test
@@ -49,6 +65,135 @@ public class SagaRasterTest {
 		assertTrue(result.size() > 0);
 	}
 	
+	@Test
+	public void testTiledConvergenceIndex() throws Exception {
+
+		URL url = this.getClass().getResource("/dem25.tif");
+		GridCoverage2D dem = FileSources.getCoverage(new File(url.getFile()));
+		NameImpl name = new NameImpl("saga", "convergenceindex");
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("elevation", dem);
+		map.put("method", new Integer(1));
+		map.put("neighbours", new Integer(1));
+		Map<String, Object> whole = fact.create(name).execute(map, null);
+
+		// 6 tiles, with the halo declared for the algorithm
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, 256);
+		Map<String, Object> tiled = fact.create(name).execute(map, null);
+
+		Raster expected = ((GridCoverage2D) whole.get("result"))
+				.getRenderedImage().getData();
+		Raster data = ((GridCoverage2D) tiled.get("result"))
+				.getRenderedImage().getData();
+		assertEquals(expected.getWidth(), data.getWidth());
+		assertEquals(expected.getHeight(), data.getHeight());
+		for (int y = 0; y < data.getHeight(); y++) {
+			for (int x = 0; x < data.getWidth(); x++) {
+				assertEquals(expected.getSampleDouble(x, y, 0), data
+						.getSampleDouble(x, y, 0), 1e-6);
+			}
+		}
+
+	}
+
+	@Test
+	public void testRequestedOutputs() {
+
+		NameImpl name = new NameImpl("saga", "slopeaspectcurvature");
+		Process proc = fact.create(name);
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("elevation", createFlat());
+		map.put("outputs", "slope");
+		map.put("lazyresults", Boolean.TRUE);
+		Map<String, Object> result = proc.execute(map, null);
+		assertEquals(1, result.size());
+		// the result is read from the SAGA grid, with no conversion
+		RasterResult slope = (RasterResult) result.get("slope");
+		assertTrue(slope instanceof SagaRasterResult);
+		GridCoverage2D gc = slope.getCoverage();
+		assertEquals(100, gc.getRenderedImage().getWidth());
+		assertEquals(DefaultGeographicCRS.WGS84, gc
+				.getCoordinateReferenceSystem());
+		slope.dispose();
+
+	}
+
+	@Test
+	public void testCacheSharedWithGrass() {
+
+		ExportCache cache = new ExportCache(Utils
+				.createTempFolder("gtsagagrasscache"), 100 * 1024 * 1024);
+		ExportCache.setInstance(cache);
+		try {
+			// a value no other test uses, so no GRASS session has the layer
+			GridCoverage2D gc = createFlat(7);
+			HashMap<String, Object> map = new HashMap<String, Object>();
+			map.put("elevation", gc);
+			map.put("outputs", "slope");
+			fact.create(new NameImpl("saga", "slopeaspectcurvature")).execute(
+					map, null);
+
+			// only the SAGA grids are written, as the layers imported by
+			// SAGA
+			ExportCache.Entry entry = cache.acquire(ExportCache
+					.getFingerprint(gc));
+			assertNotNull(entry);
+			assertNull(entry.getFilename());
+			String[] grids = cache.getImportedLayers(entry, "saga");
+			assertEquals(1, grids.length);
+			assertTrue(grids[0].endsWith(".sgrd"));
+			cache.release(entry);
+
+			long hits = cache.getHits();
+			map = new HashMap<String, Object>();
+			map.put("input", gc);
+			Map<String, Object> result = new GrassProcessFactory().create(
+					new NameImpl("grass", "r.slope.aspect")).execute(map, null);
+			assertEquals(hits + 1, cache.getHits());
+			// GRASS cannot read them, so it adds a GeoTIFF to the entry
+			assertTrue(entry.getFilename().endsWith(".tif"));
+			GridCoverage2D slope = (GridCoverage2D) result.get("slope");
+			Raster data = slope.view(ViewType.NATIVE).getRenderedImage()
+					.getData();
+			assertEquals(0d, data.getSampleDouble(1, 1, 0), 1e-6);
+		} finally {
+			ExportCache.setInstance(null);
+		}
+
+	}
+
+	@Test
+	public void testChainOutputsDeletedOnFinish() {
+
+		SagaProcessGroup pg = new SagaProcessGroup();
+		ProcessChain chain = pg.createChain();
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("elevation", createFlat());
+		map.put("outputs", new String[0]);
+		Step step = chain.add((ExternalProcess) fact.create(new NameImpl(
+				"saga", "slopeaspectcurvature")), map);
+		HashMap<String, Object> map2 = new HashMap<String, Object>();
+		map2.put("elevation", step.getOutput("slope"));
+		map2.put("outputs", "slope");
+		Step slope = chain.add((ExternalProcess) fact.create(new NameImpl(
+				"saga", "slopeaspectcurvature")), map2);
+		try {
+			chain.execute(null);
+		} finally {
+			pg.finish();
+		}
+
+		// the intermediate grid, which was not read, is deleted too
+		SagaProcess process = (SagaProcess) step.getProcess();
+		assertFalse(new File(process.getOutputLayerFilenames("slope")[0])
+				.exists());
+		// the result can still be read
+		GridCoverage2D gc = (GridCoverage2D) slope.getResults().get("slope");
+		assertEquals(0d, gc.getRenderedImage().getData().getSampleDouble(1,
+				1, 0), 1e-6);
+
+	}
+
 	@Test
 	public void testHook(){
 		Set<ProcessFactory> factories = Processors.getProcessFactories();
@@ -61,6 +206,10 @@ public class SagaRasterTest {
 	}
 
 	private static GridCoverage2D createFlat() {
+		return createFlat(5);
+	}
+
+	private static GridCoverage2D createFlat(float value) {
 		int SIZE = 100;
 		ReferencedEnvelope env;
 		env = new ReferencedEnvelope(0, SIZE, 0, SIZE,
@@ -68,7 +217,7 @@ public class SagaRasterTest {
 		float[][] data = new float[SIZE][SIZE];
 		for (int y = 0; y < SIZE; y++) {
 			for (int x = 0; x < SIZE; x++) {
-				data[x][y] = 5;
+				data[x][y] = value;
 			}
 		}
 
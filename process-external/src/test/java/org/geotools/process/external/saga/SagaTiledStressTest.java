@@ -0,0 +1,99 @@
+package org.geotools.process.external.saga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.feature.NameImpl;
+import org.geotools.process.Process;
+import org.geotools.process.external.ExternalProcess;
+import org.geotools.process.external.ExternalProcessExecutor;
+import org.geotools.process.external.FileSources;
+import org.junit.Test;
+
+/**
+ * Checks that running a focal SAGA algorithm on a large DEM in tiles gives
+ * the same result as running it on the whole layer, and that it is faster.
+ * The DEM is dem25.tif, upsampled to SIZE x SIZE cells. It takes a while, so
+ * it is excluded from the default build.
+ */
+public class SagaTiledStressTest {
+
+	private static final int SIZE = 8000;
+	private static final int TILE_SIZE = 1000;
+
+	private static final GridCoverageFactory covFactory = CoverageFactoryFinder
+			.getGridCoverageFactory(null);
+
+	@Test
+	public void testTiledSlope() throws Exception {
+
+		GridCoverage2D dem = createLargeDem();
+		SagaProcessFactory fact = new SagaProcessFactory();
+		NameImpl name = new NameImpl("saga", "slopeaspectcurvature");
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("elevation", dem);
+		Process proc = fact.create(name);
+		long start = System.currentTimeMillis();
+		Map<String, Object> whole = proc.execute(map, null);
+		long wholeTime = System.currentTimeMillis() - start;
+
+		map.put(ExternalProcess.TILE_SIZE_PARAMETER, TILE_SIZE);
+		proc = fact.create(name);
+		start = System.currentTimeMillis();
+		Map<String, Object> tiled = proc.execute(map, null);
+		long tiledTime = System.currentTimeMillis() - start;
+
+		Raster expected = ((GridCoverage2D) whole.get("slope"))
+				.getRenderedImage().getData();
+		Raster data = ((GridCoverage2D) tiled.get("slope")).getRenderedImage()
+				.getData();
+		for (int y = 0; y < SIZE; y += 97) {
+			for (int x = 0; x < SIZE; x += 97) {
+				assertEquals(expected.getSampleDouble(x, y, 0), data
+						.getSampleDouble(x, y, 0), 1e-6);
+			}
+		}
+		// tiles run in parallel, unless the pool only runs one process
+		if (ExternalProcessExecutor.getInstance().getPoolSize() > 1) {
+			assertTrue(tiledTime < wholeTime);
+		}
+
+	}
+
+	// upsamples dem25.tif with bilinear interpolation
+	private GridCoverage2D createLargeDem() throws Exception {
+		URL url = this.getClass().getResource("/dem25.tif");
+		GridCoverage2D gc = FileSources.getCoverage(new File(url.getFile()));
+		Raster data = gc.getRenderedImage().getData();
+		int width = data.getWidth();
+		int height = data.getHeight();
+		float[][] dem = new float[SIZE][SIZE];
+		for (int y = 0; y < SIZE; y++) {
+			double srcY = Math.min(height - 1.001, y * (height - 1.0) / SIZE);
+			int y0 = (int) srcY;
+			double dy = srcY - y0;
+			for (int x = 0; x < SIZE; x++) {
+				double srcX = Math.min(width - 1.001, x * (width - 1.0) / SIZE);
+				int x0 = (int) srcX;
+				double dx = srcX - x0;
+				double top = data.getSampleDouble(x0, y0, 0) * (1 - dx)
+						+ data.getSampleDouble(x0 + 1, y0, 0) * dx;
+				double bottom = data.getSampleDouble(x0, y0 + 1, 0) * (1 - dx)
+						+ data.getSampleDouble(x0 + 1, y0 + 1, 0) * dx;
+				dem[y][x] = (float) (top * (1 - dy) + bottom * dy);
+			}
+		}
+		return covFactory.create("dem", dem, gc.getEnvelope());
+	}
+
+}